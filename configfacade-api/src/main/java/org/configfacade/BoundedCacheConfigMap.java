@@ -0,0 +1,166 @@
+package org.configfacade;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.configfacade.ConfigMap.CachingConfigMap;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheBuilderSpec;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.FutureCallback;
+
+/*
+ * A Guava cache in front of a slow map. Absent keys are cached as well.
+ *
+ * Every entry carries the generation of the snapshot it was loaded from and is only
+ * served while that generation is current, so a load that races with a replace can
+ * never leave a stale value behind. The listener only frees the memory early.
+ */
+final class BoundedCacheConfigMap implements CachingConfigMap, ConfigFactory.Generational {
+
+	private final ReplaceableConfigMap source;
+	private final LoadingCache<String, Entry> cache;
+
+	public BoundedCacheConfigMap(ReplaceableConfigMap source, CacheBuilderSpec spec) {
+		super();
+		this.source = checkNotNull(source);
+		this.cache = CacheBuilder.from(spec).recordStats().build(new CacheLoader<String, Entry>() {
+			@Override
+			public Entry load(String key) {
+				return BoundedCacheConfigMap.this.load(key, BoundedCacheConfigMap.this.source.snapshot());
+			}
+		});
+		source.addListener(new FutureCallback<ConfigMap>() {
+			@Override
+			public void onSuccess(ConfigMap result) {
+				invalidateAll();
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				invalidateAll();
+			}
+		});
+	}
+
+	private Entry load(String key, ConfigSnapshot s) {
+		return new Entry(s.getGeneration(), ConfigTracer.get(s, key));
+	}
+
+	private Object get(String key, ConfigSnapshot s) {
+		Entry e = cache.getUnchecked(key);
+		if (e.generation == s.getGeneration()) return e.value;
+		e = load(key, s);
+		if (s.getGeneration() == source.snapshot().getGeneration()) {
+			cache.put(key, e);
+		}
+		return e.value;
+	}
+
+	@Override
+	public Object get(String key) {
+		return get(key, source.snapshot());
+	}
+
+	@Override
+	public boolean containsKey(String key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public Iterable<String> getRawKeys() {
+		return source.getRawKeys();
+	}
+
+	@Override
+	public CacheStats getStats() {
+		return cache.stats();
+	}
+
+	@Override
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	@Override
+	public void reload() {
+		source.reload();
+	}
+
+	@Override
+	public void replace(ConfigMap m) {
+		source.replace(m);
+	}
+
+	@Override
+	public void addListener(FutureCallback<ConfigMap> listener) {
+		source.addListener(listener);
+	}
+
+	@Override
+	public void addWeakListener(FutureCallback<ConfigMap> listener) {
+		source.addWeakListener(listener);
+	}
+
+	@Override
+	public ConfigSnapshot snapshot() {
+		return new CachedSnapshot(source.snapshot());
+	}
+
+	@Override
+	public long generation() {
+		return ConfigFactory.generationOf(source);
+	}
+
+	@Override
+	public String toString() {
+		return "BoundedCacheConfigMap [source=" + source + ", stats=" + cache.stats() + "]";
+	}
+
+	private final class CachedSnapshot implements ConfigSnapshot {
+		private final ConfigSnapshot snapshot;
+
+		public CachedSnapshot(ConfigSnapshot snapshot) {
+			super();
+			this.snapshot = snapshot;
+		}
+
+		@Override
+		public Object get(String key) {
+			return BoundedCacheConfigMap.this.get(key, snapshot);
+		}
+
+		@Override
+		public boolean containsKey(String key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public Iterable<String> getRawKeys() {
+			return snapshot.getRawKeys();
+		}
+
+		@Override
+		public long getGeneration() {
+			return snapshot.getGeneration();
+		}
+
+		@Override
+		public String toString() {
+			return "CachedSnapshot [snapshot=" + snapshot + "]";
+		}
+	}
+
+	private static final class Entry {
+		final long generation;
+		// Null for an absent key
+		final Object value;
+
+		Entry(long generation, Object value) {
+			this.generation = generation;
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package org.configfacade;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+
+/**
+ * How {@link Config.Property#cache(CachePolicy)} keeps a value. Unlike {@link Config.Property#cache()}
+ * a policy does not depend on the config map notifying listeners.
+ * <ul>
+ * <li><em>expire after</em> - a value older than this is loaded again by the next reader.</li>
+ * <li><em>refresh after</em> - the value is reloaded in the background this long after it was loaded,
+ * so readers keep getting the current value without ever loading it themselves.</li>
+ * <li><em>stale on error</em> - if a reload fails the last value is served instead of the error.</li>
+ * </ul>
+ * Only expired values are reloaded by readers, so <em>stale on error</em> has no effect without
+ * <em>expire after</em>. A failed background refresh always keeps the last value.
+ * Background refreshes of every cached property share one timer thread.
+ * Policies are immutable; the <code>with</code> methods return a copy.
+ */
+public final class CachePolicy {
+
+	private final long expireAfterNanos;
+	private final long refreshAfterNanos;
+	private final boolean staleOnError;
+	private final Ticker ticker;
+	private final Executor executor;
+
+	private CachePolicy(long expireAfterNanos, long refreshAfterNanos, boolean staleOnError, Ticker ticker,
+			Executor executor) {
+		super();
+		this.expireAfterNanos = expireAfterNanos;
+		this.refreshAfterNanos = refreshAfterNanos;
+		this.staleOnError = staleOnError;
+		this.ticker = ticker;
+		this.executor = executor;
+	}
+
+	public static CachePolicy expireAfter(long duration, TimeUnit unit) {
+		return new CachePolicy(nanos(duration, unit), 0, false, Ticker.systemTicker(), null);
+	}
+
+	public static CachePolicy refreshAfter(long duration, TimeUnit unit) {
+		return new CachePolicy(0, nanos(duration, unit), false, Ticker.systemTicker(), null);
+	}
+
+	public CachePolicy withExpireAfter(long duration, TimeUnit unit) {
+		return new CachePolicy(nanos(duration, unit), refreshAfterNanos, staleOnError, ticker, executor);
+	}
+
+	public CachePolicy withRefreshAfter(long duration, TimeUnit unit) {
+		return new CachePolicy(expireAfterNanos, nanos(duration, unit), staleOnError, ticker, executor);
+	}
+
+	/**
+	 * Only applies to values that expire, see {@link #withExpireAfter(long, TimeUnit)}.
+	 */
+	public CachePolicy withStaleOnError() {
+		return new CachePolicy(expireAfterNanos, refreshAfterNanos, true, ticker, executor);
+	}
+
+	public CachePolicy withTicker(Ticker ticker) {
+		return new CachePolicy(expireAfterNanos, refreshAfterNanos, staleOnError, checkNotNull(ticker), executor);
+	}
+
+	/**
+	 * Where background refreshes load the value. Defaults to a shared pool of daemon threads.
+	 */
+	public CachePolicy withExecutor(Executor executor) {
+		return new CachePolicy(expireAfterNanos, refreshAfterNanos, staleOnError, ticker, checkNotNull(executor));
+	}
+
+	private static long nanos(long duration, TimeUnit unit) {
+		checkArgument(duration > 0, "Duration should be positive: %s", duration);
+		return unit.toNanos(duration);
+	}
+
+	/**
+	 * Zero if values do not expire.
+	 */
+	public long getExpireAfterNanos() {
+		return expireAfterNanos;
+	}
+
+	/**
+	 * Zero if values are not refreshed in the background.
+	 */
+	public long getRefreshAfterNanos() {
+		return refreshAfterNanos;
+	}
+
+	public boolean isStaleOnError() {
+		return staleOnError;
+	}
+
+	public Ticker getTicker() {
+		return ticker;
+	}
+
+	public Executor getExecutor() {
+		return executor != null ? executor : TimerWheel.sharedExecutor();
+	}
+
+	boolean isExpired(long loadedAt, long now) {
+		return expireAfterNanos > 0 && now - loadedAt >= expireAfterNanos;
+	}
+
+	boolean isRefreshing() {
+		return refreshAfterNanos > 0;
+	}
+
+	@Override
+	public String toString() {
+		return "CachePolicy [expireAfterNanos=" + expireAfterNanos + ", refreshAfterNanos=" + refreshAfterNanos
+				+ ", staleOnError=" + staleOnError + "]";
+	}
+}
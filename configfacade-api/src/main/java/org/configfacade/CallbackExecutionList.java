@@ -2,13 +2,18 @@ package org.configfacade;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.List;
 import java.util.concurrent.Executor;
 
+import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.FutureCallback;
 
 public class CallbackExecutionList<V> implements FutureCallback<V> {
 
 	private volatile RunnableExecutorPair<V> runnables;
+	private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
 
 	public CallbackExecutionList() {}
 
@@ -17,28 +22,94 @@ public class CallbackExecutionList<V> implements FutureCallback<V> {
 		checkNotNull(runnable, "Runnable was null.");
 		checkNotNull(executor, "Executor was null.");
 
-		runnables = new RunnableExecutorPair<V>(runnable, executor, runnables);
-		
+		synchronized (this) {
+			purge();
+			runnables = new RunnableExecutorPair<V>(runnable, null, executor, runnables);
+		}
 	}
 
-	public void onSuccess(V v) {
+	/**
+	 * Only holds a weak reference to the callback. Once the callback has been garbage collected
+	 * it is dropped from the list the next time the list is added to or notified.
+	 * The caller has to keep the callback strongly reachable for as long as it should be notified.
+	 */
+	public void addWeak(FutureCallback<? super V> runnable, Executor executor) {
+
+		checkNotNull(runnable, "Runnable was null.");
+		checkNotNull(executor, "Executor was null.");
+
+		WeakReference<FutureCallback<? super V>> ref = new WeakReference<FutureCallback<? super V>>(runnable, queue);
+		synchronized (this) {
+			purge();
+			runnables = new RunnableExecutorPair<V>(null, ref, executor, runnables);
+		}
+	}
+
+	public synchronized boolean remove(FutureCallback<? super V> runnable) {
+		int size = size();
+		runnables = copyWithout(runnables, runnable);
+		return size != size();
+	}
 
-		RunnableExecutorPair<V> list = runnables;		
+	public int size() {
+		int i = 0;
+		for (RunnableExecutorPair<V> list = runnables; list != null; list = list.next) {
+			i++;
+		}
+		return i;
+	}
+
+	/*
+	 * Cheap unless a weak callback was collected since the last purge.
+	 */
+	private void purge() {
+		if (queue.poll() == null) return;
+		while (queue.poll() != null) {
+			// drain, the list is copied once below
+		}
+		synchronized (this) {
+			runnables = copyWithout(runnables, null);
+		}
+	}
+
+	/*
+	 * Copies the list without the given callback and without collected weak callbacks.
+	 */
+	private static <V> RunnableExecutorPair<V> copyWithout(RunnableExecutorPair<V> list, FutureCallback<? super V> runnable) {
+		List<RunnableExecutorPair<V>> kept = Lists.newArrayList();
+		for (; list != null; list = list.next) {
+			FutureCallback<? super V> c = list.callback();
+			if (c != null && c != runnable) kept.add(list);
+		}
+		RunnableExecutorPair<V> result = null;
+		for (RunnableExecutorPair<V> p : Lists.reverse(kept)) {
+			result = new RunnableExecutorPair<V>(p.runnable, p.ref, p.executor, result);
+		}
+		return result;
+	}
+
+	public void onSuccess(V v) {
+		purge();
+		RunnableExecutorPair<V> list = runnables;
 
 		while (list != null) {
-			callSuccess(v, list.runnable, list.executor);
+			FutureCallback<? super V> c = list.callback();
+			if (c != null) {
+				callSuccess(v, c, list.executor);
+			}
 			list = list.next;
 		}
 	}
 
 	public void onFailure(Throwable throwable) {
-		RunnableExecutorPair<V> list;
-		synchronized (this) {
-			list = runnables;
-		}
+		purge();
+		RunnableExecutorPair<V> list = runnables;
 
 		while (list != null) {
-			callFailure(throwable, list.runnable, list.executor);
+			FutureCallback<? super V> c = list.callback();
+			if (c != null) {
+				callFailure(throwable, c, list.executor);
+			}
 			list = list.next;
 		}
 	}
@@ -47,7 +118,24 @@ public class CallbackExecutionList<V> implements FutureCallback<V> {
 		executor.execute(new Runnable() {
 			@Override
 			public void run() {
-				runnable.onSuccess(value);
+				ConfigTracer tracer = ConfigTracer.current();
+				if (tracer == null) {
+					runnable.onSuccess(value);
+					return;
+				}
+				Object context = tracer.listenerStarted(runnable);
+				long start = System.nanoTime();
+				Throwable failure = null;
+				try {
+					runnable.onSuccess(value);
+				}
+				catch (RuntimeException | Error e) {
+					failure = e;
+					throw e;
+				}
+				finally {
+					tracer.listenerDispatched(context, runnable, System.nanoTime() - start, failure);
+				}
 			}
 		});
 	}
@@ -56,20 +144,45 @@ public class CallbackExecutionList<V> implements FutureCallback<V> {
 		executor.execute(new Runnable() {
 			@Override
 			public void run() {
-				runnable.onFailure(t);
+				ConfigTracer tracer = ConfigTracer.current();
+				if (tracer == null) {
+					runnable.onFailure(t);
+					return;
+				}
+				Object context = tracer.listenerStarted(runnable);
+				long start = System.nanoTime();
+				Throwable failure = null;
+				try {
+					runnable.onFailure(t);
+				}
+				catch (RuntimeException | Error e) {
+					failure = e;
+					throw e;
+				}
+				finally {
+					tracer.listenerDispatched(context, runnable, System.nanoTime() - start, failure);
+				}
 			}
 		});
 	}
 
 	private static final class RunnableExecutorPair<V> {
 		final FutureCallback<? super V> runnable;
+		final WeakReference<FutureCallback<? super V>> ref;
 		final Executor executor;
-		RunnableExecutorPair<V> next;
+		final RunnableExecutorPair<V> next;
 
-		RunnableExecutorPair(FutureCallback<? super V> runnable, Executor executor, RunnableExecutorPair<V> next) {
+		RunnableExecutorPair(FutureCallback<? super V> runnable, WeakReference<FutureCallback<? super V>> ref,
+				Executor executor, RunnableExecutorPair<V> next) {
 			this.runnable = runnable;
+			this.ref = ref;
 			this.executor = executor;
 			this.next = next;
 		}
+
+		FutureCallback<? super V> callback() {
+			if (runnable != null) return runnable;
+			return ref.get();
+		}
 	}
 }
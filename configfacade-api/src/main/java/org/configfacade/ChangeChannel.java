@@ -0,0 +1,217 @@
+package org.configfacade;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.util.Map;
+
+import org.configfacade.ConfigMap.ReplaceableConfigMap;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.FutureCallback;
+
+/**
+ * Signals config changes between the processes of one host through a small memory-mapped file.
+ * <p>
+ * One writer process {@link #publish(ConfigMap) publishes} a map. It is written as a snapshot
+ * file next to the channel and the channel then points at it with a new generation. Maps
+ * {@link #subscribe() subscribed} in other processes compare the mapped generation on every
+ * access, which is a plain memory read, and load the new snapshot on the first access after
+ * it changed. Nothing polls the file system.
+ * <p>
+ * The channel holds only the generation, in one aligned long, and the snapshot file is named
+ * after it. The writer finishes the snapshot file before it publishes the generation, so a
+ * writer that dies midway leaves the channel pointing at the previous, complete snapshot.
+ */
+public final class ChangeChannel implements Closeable {
+
+	private static final int SIZE = 4096;
+	private static final int GENERATION = 0;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final MappedByteBuffer buffer;
+
+	private ChangeChannel(File file, RandomAccessFile raf, MappedByteBuffer buffer) {
+		this.file = file;
+		this.raf = raf;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * Maps the channel file, creating it if it does not exist yet.
+	 */
+	public static ChangeChannel open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+			return new ChangeChannel(file.getAbsoluteFile(), raf, buffer);
+		}
+		catch (IOException | RuntimeException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Zero until the first map is published.
+	 */
+	public long getGeneration() {
+		return buffer.getLong(GENERATION);
+	}
+
+	/**
+	 * Writes the map as the next snapshot and points the channel at it. Publishing holds a lock on the
+	 * channel file so concurrent writers are serialized, but a channel is meant to have one writer.
+	 */
+	public synchronized long publish(ConfigMap m) throws IOException {
+		checkNotNull(m);
+		// Released explicitly, the lock is never read inside a try-with-resources
+		FileLock lock = raf.getChannel().lock();
+		try {
+			long previous = getGeneration();
+			long generation = previous + 1;
+			PersistentConfigMap.write(m, snapshotFile(generation));
+			buffer.putLong(GENERATION, generation);
+			// Readers that are still loading the previous snapshot keep it
+			Files.deleteIfExists(snapshotFile(previous - 1).toPath());
+			return generation;
+		}
+		finally {
+			lock.release();
+		}
+	}
+
+	/*
+	 * Kept until two more generations are published.
+	 */
+	File snapshotFile(long generation) {
+		return new File(file.getParentFile(), file.getName() + "." + generation);
+	}
+
+	/**
+	 * A map that follows the published snapshots, empty until the first one. A local replace lasts
+	 * until the next snapshot is published.
+	 */
+	public ReplaceableConfigMap subscribe() {
+		return new Subscription(this);
+	}
+
+	@Override
+	public void close() throws IOException {
+		raf.close();
+	}
+
+	@Override
+	public String toString() {
+		return "ChangeChannel [file=" + file + ", generation=" + getGeneration() + "]";
+	}
+
+	private static final class Subscription implements ReplaceableConfigMap, ConfigFactory.Guarded {
+
+		private final ChangeChannel channel;
+		private final ReplaceableConfigMap map;
+		private volatile long seen = -1;
+		// A generation whose snapshot could not be read, for example because it was already
+		// deleted by later publishes, is not read again
+		private volatile long skipped = -1;
+
+		Subscription(ChangeChannel channel) {
+			this.channel = channel;
+			this.map = ConfigFactory.replaceable(ConfigFactory.toConfigMap(ImmutableMap.of()));
+			check();
+		}
+
+		private void check() {
+			long g = channel.getGeneration();
+			if (g != seen && g != skipped) load(g);
+		}
+
+		/*
+		 * Keeps the current map if the snapshot cannot be read, the next generation is loaded once
+		 * it is published. The generation counts as seen before the replace so listeners reading
+		 * the map do not load again.
+		 */
+		private synchronized void load(long g) {
+			if (g == seen || g == skipped) return;
+			if (g == 0) {
+				seen = g;
+				return;
+			}
+			Map<String, String> m = PersistentConfigMap.tryRead(channel.snapshotFile(g));
+			if (m == null) {
+				skipped = g;
+				return;
+			}
+			seen = g;
+			try {
+				map.replace(ConfigFactory.toConfigMap(m));
+			}
+			catch (IllegalArgumentException e) {
+				// Rejected by a guard, the current map stays until the next snapshot
+			}
+		}
+
+		@Override
+		public Object get(String key) {
+			check();
+			return map.get(key);
+		}
+
+		@Override
+		public Iterable<String> getRawKeys() {
+			check();
+			return map.getRawKeys();
+		}
+
+		@Override
+		public boolean containsKey(String key) {
+			check();
+			return map.containsKey(key);
+		}
+
+		@Override
+		public void reload() {
+			check();
+			map.reload();
+		}
+
+		@Override
+		public void replace(ConfigMap m) {
+			map.replace(m);
+		}
+
+		@Override
+		public void guard(ConfigSchema schema) {
+			ConfigFactory.guard(map, schema);
+		}
+
+		@Override
+		public void addListener(FutureCallback<ConfigMap> listener) {
+			map.addListener(listener);
+		}
+
+		@Override
+		public void addWeakListener(FutureCallback<ConfigMap> listener) {
+			map.addWeakListener(listener);
+		}
+
+		@Override
+		public ConfigSnapshot snapshot() {
+			check();
+			return map.snapshot();
+		}
+
+		@Override
+		public String toString() {
+			return "Subscription [channel=" + channel + "]";
+		}
+	}
+}
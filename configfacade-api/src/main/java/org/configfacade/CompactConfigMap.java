@@ -0,0 +1,247 @@
+package org.configfacade;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Maps;
+
+/*
+ * An immutable copy of a map stored as a trie of interned path segments.
+ *
+ * Every distinct segment is stored once and paths are encoded as segment ids, so keys that
+ * share prefixes or repeat segments (tenant.<id>.service.<name>...) cost little beyond their
+ * values. Lookups walk the segments of the key in place without substrings or concatenation.
+ */
+final class CompactConfigMap implements ConfigMap {
+
+	private final Segments segments;
+	private final Node root;
+	private final int size;
+
+	private CompactConfigMap(Segments segments, Node root, int size) {
+		this.segments = segments;
+		this.root = root;
+		this.size = size;
+	}
+
+	static CompactConfigMap copyOf(ConfigMap m) {
+		Segments segments = new Segments();
+		Builder root = new Builder();
+		int size = 0;
+		for (String k : m.getRawKeys()) {
+			Object v = m.get(k);
+			if (v == null) continue;
+			Builder b = root;
+			int start = 0;
+			int end;
+			do {
+				end = k.indexOf('.', start);
+				if (end < 0) end = k.length();
+				int id = segments.id(k, start, end);
+				if (id < 0) id = segments.intern(k.substring(start, end));
+				b = b.child(id);
+				start = end + 1;
+			} while (end < k.length());
+			if (b.value == null) size++;
+			b.value = v;
+		}
+		return new CompactConfigMap(segments, root.build(), size);
+	}
+
+	/*
+	 * Returns the node of the key or null.
+	 */
+	private Node find(String key) {
+		Node n = root;
+		int start = 0;
+		int end;
+		do {
+			end = key.indexOf('.', start);
+			if (end < 0) end = key.length();
+			int id = segments.id(key, start, end);
+			if (id < 0) return null;
+			n = n.child(id);
+			if (n == null) return null;
+			start = end + 1;
+		} while (end < key.length());
+		return n;
+	}
+
+	@Override
+	public Object get(String key) {
+		Node n = find(key);
+		return n == null ? null : n.value;
+	}
+
+	@Override
+	public boolean containsKey(String key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public Iterable<String> getRawKeys() {
+		return new Iterable<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new KeyIterator();
+			}
+		};
+	}
+
+	int size() {
+		return size;
+	}
+
+	int segmentCount() {
+		return segments.size;
+	}
+
+	@Override
+	public String toString() {
+		return "CompactConfigMap [size=" + size + ", segments=" + segments.size + "]";
+	}
+
+	/*
+	 * Depth first without recursion. Key strings are only built while iterating.
+	 */
+	private final class KeyIterator extends AbstractIterator<String> {
+		private final Deque<Node> nodes = new ArrayDeque<Node>();
+		private final Deque<String> paths = new ArrayDeque<String>();
+
+		KeyIterator() {
+			push(root, null);
+		}
+
+		private void push(Node n, String path) {
+			for (int i = n.ids.length - 1; i >= 0; i--) {
+				String s = segments.segment(n.ids[i]);
+				nodes.push(n.children[i]);
+				paths.push(path == null ? s : path + "." + s);
+			}
+		}
+
+		@Override
+		protected String computeNext() {
+			while (! nodes.isEmpty()) {
+				Node n = nodes.pop();
+				String path = paths.pop();
+				push(n, path);
+				if (n.value != null) return path;
+			}
+			return endOfData();
+		}
+	}
+
+	private static final class Node {
+		private static final int[] NO_IDS = new int[0];
+		private static final Node[] NO_CHILDREN = new Node[0];
+
+		// Sorted
+		final int[] ids;
+		final Node[] children;
+		final Object value;
+
+		Node(int[] ids, Node[] children, Object value) {
+			this.ids = ids;
+			this.children = children;
+			this.value = value;
+		}
+
+		Node child(int id) {
+			int i = Arrays.binarySearch(ids, id);
+			return i < 0 ? null : children[i];
+		}
+	}
+
+	private static final class Builder {
+		private final Map<Integer, Builder> children = Maps.newHashMap();
+		private Object value;
+
+		Builder child(int id) {
+			Builder b = children.get(id);
+			if (b == null) {
+				b = new Builder();
+				children.put(id, b);
+			}
+			return b;
+		}
+
+		Node build() {
+			if (children.isEmpty()) return new Node(Node.NO_IDS, Node.NO_CHILDREN, value);
+			int[] ids = new int[children.size()];
+			int i = 0;
+			for (Integer id : children.keySet()) {
+				ids[i++] = id;
+			}
+			Arrays.sort(ids);
+			Node[] nodes = new Node[ids.length];
+			for (i = 0; i < ids.length; i++) {
+				nodes[i] = children.get(ids[i]).build();
+			}
+			return new Node(ids, nodes, value);
+		}
+	}
+
+	/*
+	 * Interns segments to dense ids. Only written while the map is built.
+	 * Probes hash a region of the key the same way String.hashCode does.
+	 */
+	static final class Segments {
+		private String[] segments = new String[16];
+		// Open addressing, id + 1 or 0 for an empty slot
+		private int[] slots = new int[32];
+		private int size;
+
+		int intern(String segment) {
+			int i = slot(segment, 0, segment.length(), segment.hashCode());
+			if (slots[i] != 0) return slots[i] - 1;
+			if (size == segments.length) {
+				segments = Arrays.copyOf(segments, size * 2);
+			}
+			segments[size] = segment;
+			slots[i] = ++size;
+			if (size * 2 > slots.length) rehash();
+			return size - 1;
+		}
+
+		/*
+		 * The id of key[start, end) or -1.
+		 */
+		int id(String key, int start, int end) {
+			int h = 0;
+			for (int i = start; i < end; i++) {
+				h = 31 * h + key.charAt(i);
+			}
+			int i = slot(key, start, end, h);
+			return slots[i] - 1;
+		}
+
+		String segment(int id) {
+			return segments[id];
+		}
+
+		private int slot(String key, int start, int end, int hash) {
+			int mask = slots.length - 1;
+			int length = end - start;
+			int i = (hash ^ (hash >>> 16)) & mask;
+			while (slots[i] != 0) {
+				String s = segments[slots[i] - 1];
+				if (s.length() == length && key.regionMatches(start, s, 0, length)) return i;
+				i = (i + 1) & mask;
+			}
+			return i;
+		}
+
+		private void rehash() {
+			slots = new int[slots.length * 2];
+			for (int id = 0; id < size; id++) {
+				String s = segments[id];
+				slots[slot(s, 0, s.length(), s.hashCode())] = id + 1;
+			}
+		}
+	}
+}
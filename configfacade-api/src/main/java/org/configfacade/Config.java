@@ -1,20 +1,31 @@
 package org.configfacade;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
+import java.lang.ref.WeakReference;
+import java.lang.reflect.ParameterizedType;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.configfacade.ConfigMap.ReplaceableConfigMap;
+import org.configfacade.ConfigMap.AsyncConfigMap;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
 import com.google.common.collect.ObjectArrays;
+import com.google.common.primitives.Primitives;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.MoreExecutors;
 
-public interface Config extends ReplaceableConfigMap {
+public interface Config extends AsyncConfigMap {
 	
 	public boolean hasPath(String path);
 	
@@ -30,6 +41,19 @@ public interface Config extends ReplaceableConfigMap {
 	
 	public Property<Double> getDouble(String path);
 	
+	public Property<Duration> getDuration(String path);
+	
+	public Property<DataSize> getDataSize(String path);
+	
+	/**
+	 * Structured values are parsed once and shared by every read until the value changes.
+	 */
+	public Property<List<String>> getList(String path);
+	
+	public Property<Set<String>> getSet(String path);
+	
+	public Property<Map<String, String>> getMap(String path);
+	
 	/**
 	 * Gets paths that only have a single element. Basically have no '.'.
 	 * @return
@@ -47,6 +71,13 @@ public interface Config extends ReplaceableConfigMap {
 	public void replace(ConfigMap configMap);
 	
 	public Config withFallback(ConfigMap config);
+	
+	/**
+	 * Pins the current generation of the backing map. The snapshot always covers the whole
+	 * backing map so that one snapshot can be shared by every config derived via {@link #atPath(String)}.
+	 * Its own keys are relative to {@link #getCurrentPath()}.
+	 */
+	public ConfigSnapshot snapshot();
 
 	
 	public <T> Property<T> getProperty(
@@ -56,6 +87,13 @@ public interface Config extends ReplaceableConfigMap {
 			final String path, 
 			final Class<T> c);
 	
+	/**
+	 * Reads and converts every path of the batch from the current snapshot in one pass.
+	 */
+	public Values getValues(Batch batch);
+	
+	public Values getValues(Batch batch, ConfigSnapshot snapshot);
+	
 
 	public interface TypeMatcher<CONTEXT, PATH, RETURN> {
 		public RETURN onString(CONTEXT context, PATH path);
@@ -63,6 +101,11 @@ public interface Config extends ReplaceableConfigMap {
 		public RETURN onLong(CONTEXT context, PATH path);
 		public RETURN onDouble(CONTEXT context, PATH path);
 		public RETURN onInteger(CONTEXT context, PATH path);
+		public RETURN onDuration(CONTEXT context, PATH path);
+		public RETURN onDataSize(CONTEXT context, PATH path);
+		public RETURN onList(CONTEXT context, PATH path);
+		public RETURN onSet(CONTEXT context, PATH path);
+		public RETURN onMap(CONTEXT context, PATH path);
 	}
 		
 	public interface PropertyTypeMatcher extends TypeMatcher<ConfigMap, String, Property<?>> {
@@ -104,6 +147,45 @@ public interface Config extends ReplaceableConfigMap {
 			public <C, P, R> R match(TypeMatcher<C, P, R> matcher, C c, P p) {
 				return matcher.onDouble(c,p);
 			}
+		},
+		DURATION(Duration.class) {
+			@Override
+			public <C, P, R> R match(TypeMatcher<C, P, R> matcher, C c, P p) {
+				return matcher.onDuration(c,p);
+			}
+		},
+		DATA_SIZE(DataSize.class) {
+			@Override
+			public <C, P, R> R match(TypeMatcher<C, P, R> matcher, C c, P p) {
+				return matcher.onDataSize(c,p);
+			}
+		},
+		/**
+		 * An immutable list of the comma separated, trimmed and non empty strings.
+		 */
+		LIST(List.class) {
+			@Override
+			public <C, P, R> R match(TypeMatcher<C, P, R> matcher, C c, P p) {
+				return matcher.onList(c,p);
+			}
+		},
+		/**
+		 * Like {@link #LIST} without duplicates and in the order they appear.
+		 */
+		SET(Set.class) {
+			@Override
+			public <C, P, R> R match(TypeMatcher<C, P, R> matcher, C c, P p) {
+				return matcher.onSet(c,p);
+			}
+		},
+		/**
+		 * An immutable map of comma separated <code>key=value</code> entries.
+		 */
+		MAP(Map.class) {
+			@Override
+			public <C, P, R> R match(TypeMatcher<C, P, R> matcher, C c, P p) {
+				return matcher.onMap(c,p);
+			}
 		};
 
 		private final Class<?> type;
@@ -111,13 +193,33 @@ public interface Config extends ReplaceableConfigMap {
 		private Type(Class<?> type) {
 			this.type = type;
 		}
+		private static final ClassValue<Type> byClass = new ClassValue<Type>() {
+			@Override
+			protected Type computeValue(Class<?> c) {
+				for (Type pt : Type.values()) {
+					if (pt.isPropertyType(c))
+						return pt;
+				}
+				return null;
+			}
+		};
+		
 		public boolean isPropertyType(java.lang.reflect.Type c) {
-			return type == c; // ||  type.isAssignableFrom(c);
+			return type == c || Primitives.wrap(type) == c; // ||  type.isAssignableFrom(c);
 		}
+		/**
+		 * Collection types only match with string elements, for example <code>List&lt;String&gt;</code>.
+		 */
 		public static Type findPropertyType(java.lang.reflect.Type c) {
-			for (Type pt : Type.values()) {
-				if (pt.isPropertyType(c))
-					return pt;
+			if (c instanceof ParameterizedType) {
+				ParameterizedType pt = (ParameterizedType) c;
+				for (java.lang.reflect.Type a : pt.getActualTypeArguments()) {
+					if (a != String.class) return null;
+				}
+				c = pt.getRawType();
+			}
+			if (c instanceof Class) {
+				return byClass.get((Class<?>) c);
 			}
 			return null;
 		}
@@ -131,29 +233,246 @@ public interface Config extends ReplaceableConfigMap {
 
 	
 
+	/**
+	 * An immutable list of paths and their types that are read together by {@link Config#getValues(Batch)}.
+	 * Build it once, for example when a component is initialized, and reuse it.
+	 */
+	public final class Batch {
+		
+		private final String[] paths;
+		private final Type[] types;
+		
+		private Batch(String[] paths, Type[] types) {
+			this.paths = paths;
+			this.types = types;
+		}
+		
+		public static Builder builder() {
+			return new Builder();
+		}
+		
+		public int size() {
+			return paths.length;
+		}
+		
+		public String getPath(int index) {
+			return paths[index];
+		}
+		
+		public Type getType(int index) {
+			return types[index];
+		}
+		
+		public int indexOf(String path) {
+			for (int i = 0; i < paths.length; i++) {
+				if (paths[i].equals(path)) return i;
+			}
+			return -1;
+		}
+
+		@Override
+		public String toString() {
+			return "Batch " + Arrays.toString(paths);
+		}
+		
+		public static class Builder {
+			private final List<String> paths = Lists.newArrayList();
+			private final List<Type> types = Lists.newArrayList();
+			
+			public Builder add(String path, Type type) {
+				paths.add(checkNotNull(path));
+				types.add(checkNotNull(type));
+				return this;
+			}
+			
+			public Batch build() {
+				return new Batch(paths.toArray(new String[paths.size()]), types.toArray(new Type[types.size()]));
+			}
+		}
+	}
+	
+	/**
+	 * The converted values of a {@link Batch}, all read from the same generation.
+	 * Values are stored in an array in batch order. A conversion failure is only thrown when
+	 * its value is accessed.
+	 */
+	public final class Values {
+		
+		private final Batch batch;
+		private final Object[] values;
+		private final long generation;
+		
+		Values(Batch batch, Object[] values, long generation) {
+			checkArgument(batch.size() == values.length, "Values do not match the batch");
+			this.batch = batch;
+			this.values = values;
+			this.generation = generation;
+		}
+		
+		static Object failure(RuntimeException e) {
+			return new Failure(checkNotNull(e));
+		}
+		
+		public long getGeneration() {
+			return generation;
+		}
+		
+		public Batch getBatch() {
+			return batch;
+		}
+		
+		public int size() {
+			return values.length;
+		}
+		
+		public boolean isPresent(int index) {
+			return value(index) != null;
+		}
+		
+		public <T> T get(int index) {
+			T t = value(index);
+			checkState(t != null, "Property is not present: '%s'", batch.getPath(index));
+			return t;
+		}
+		
+		public <T> T get(String path) {
+			return get(index(path));
+		}
+		
+		public <T> T orValue(int index, T t) {
+			Object o = values[index];
+			if (o == null || o instanceof Failure) return t;
+			return cast(o);
+		}
+		
+		public <T> T orValue(String path, T t) {
+			return orValue(index(path), t);
+		}
+		
+		private int index(String path) {
+			int i = batch.indexOf(path);
+			checkArgument(i >= 0, "Path is not part of the batch: '%s'", path);
+			return i;
+		}
+		
+		private <T> T value(int index) {
+			Object o = values[index];
+			if (o instanceof Failure) {
+				throw ((Failure) o).exception;
+			}
+			return cast(o);
+		}
+		
+		@SuppressWarnings("unchecked") // The caller knows the type from the batch
+		private static <T> T cast(Object o) {
+			return (T) o;
+		}
+		
+		private static final class Failure {
+			private final RuntimeException exception;
+
+			private Failure(RuntimeException exception) {
+				this.exception = exception;
+			}
+		}
+	}
+
 	public abstract class Property<T> implements Supplier<T> {
 		
 		public boolean isPresent() {
-			return optional().isPresent();
+			return value(null) != null;
+		}
+		
+		public boolean isPresent(ConfigSnapshot snapshot) {
+			return value(checkNotNull(snapshot)) != null;
 		}
 		
 		@Override
 		public T get() {
-			Optional<? extends T> o = optional();
-			checkState(o.isPresent(), "Property is not present: '" + getKey() + "'");
-			return o.get();
+			return checkPresent(value(null));
+		}
+		
+		/**
+		 * Reads this property from a pinned generation instead of the live map.
+		 * Properties that are not backed by a config map ignore the snapshot.
+		 */
+		public T get(ConfigSnapshot snapshot) {
+			return checkPresent(value(checkNotNull(snapshot)));
+		}
+		
+		private T checkPresent(T t) {
+			if (t == null) {
+				throw new IllegalStateException("Property is not present: '" + getKey() + "'");
+			}
+			return t;
 		}
 		
 		public abstract String getKey();
 		protected abstract Optional<? extends T> optional() throws RuntimeException;
+		
+		protected Optional<? extends T> optional(ConfigSnapshot snapshot) throws RuntimeException {
+			return optional();
+		}
+		
+		/*
+		 * The read path behind get and isPresent. Returns null if the property is absent,
+		 * a null snapshot reads the live value. Properties override this to avoid
+		 * allocating an Optional on every read.
+		 */
+		protected T value(ConfigSnapshot snapshot) throws RuntimeException {
+			Optional<? extends T> o = snapshot == null ? optional() : optional(snapshot);
+			return o.orNull();
+		}
+		
+		/*
+		 * Reads without throwing. Returns null if the value is absent or could not be read or converted.
+		 */
+		protected T attempt(ConfigSnapshot snapshot) {
+			try {
+				return value(snapshot);
+			}
+			catch (RuntimeException e) {
+				return null;
+			}
+		}
+		
+		/*
+		 * Increases whenever the value of this property may have changed or is -1 if that is not tracked.
+		 */
+		protected long generation() {
+			return -1;
+		}
+		
+		/*
+		 * Like generation() but -1 unless the value can only change along with the generation.
+		 * A map that is mutated in place changes its values without a new generation.
+		 */
+		protected long committedGeneration() {
+			return -1;
+		}
+		
 		@SuppressWarnings("unchecked") // Ok because optional is readonly
 		public Optional<T> toOptional() {
 			return (Optional<T>) optional();
 		}
+		
+		@SuppressWarnings("unchecked") // Ok because optional is readonly
+		public Optional<T> toOptional(ConfigSnapshot snapshot) {
+			return (Optional<T>) optional(checkNotNull(snapshot));
+		}
 		public void addListener(FutureCallback<? super T> callback) {
 			runListener(callback);
 		}
 		
+		/**
+		 * Registers the callback without the config map holding on to this property.
+		 * The callback is notified for as long as this property is reachable, after that both
+		 * are garbage collected and the registration is purged from the map.
+		 */
+		public void addWeakListener(FutureCallback<? super T> callback) {
+			runListener(callback);
+		}
+		
 		protected final void runListener(FutureCallback<? super T> callback) {
 			T t;
 			try {
@@ -176,8 +495,19 @@ public interface Config extends ReplaceableConfigMap {
 			return cache(this);
 		}
 		
+		/**
+		 * Caches by time instead of by listener which also works for config maps that do not notify.
+		 */
+		public Property<T> cache(CachePolicy policy) {
+			return cache(this, policy);
+		}
+		
+		/**
+		 * Returns the given value if this property is absent or fails to convert.
+		 */
 		public T orValue(T t) {
-			return or(t).get();
+			T v = attempt(null);
+			return v != null ? v : t;
 		}
 		
 		
@@ -193,6 +523,10 @@ public interface Config extends ReplaceableConfigMap {
 		}
 		
 		
+		/**
+		 * Falls back to the given properties in order. Links that are absent or fail to convert are
+		 * skipped, and while a config map is neither replaced nor reloaded they are not read again.
+		 */
 		@SafeVarargs //Because Property is read only this is ok.
 		public final  Property<T> or(Property<? extends T> ... property) {
 			Property<? extends T>[] props = ObjectArrays.concat(this, property);
@@ -222,7 +556,7 @@ public interface Config extends ReplaceableConfigMap {
 		
 		private static class BackupProperty<T> extends ForwardingProperty<T> {
 
-			private volatile Optional<? extends T> fallback = null;
+			private volatile T fallback = null;
 
 			public BackupProperty(Property<T> delegate) {
 				super(delegate);
@@ -230,15 +564,31 @@ public interface Config extends ReplaceableConfigMap {
 			
 			@Override
 			public Optional<? extends T> optional() {
-				Optional<? extends T> o = delegate.optional();
-				Optional<? extends T> f = fallback;
-				if (o.isPresent()) {
-					fallback = o;
+				return Optional.fromNullable(value(null));
+			}
+			
+			@Override
+			protected Optional<? extends T> optional(ConfigSnapshot snapshot) {
+				return Optional.fromNullable(value(snapshot));
+			}
+			
+			@Override
+			protected T value(ConfigSnapshot snapshot) {
+				T t = delegate.value(snapshot);
+				if (t == null) return fallback;
+				if (t != fallback) fallback = t;
+				return t;
+			}
+			
+			// A failing delegate is not backed up.
+			@Override
+			protected T attempt(ConfigSnapshot snapshot) {
+				try {
+					return value(snapshot);
 				}
-				else if (f != null) {
-					return f;
+				catch (RuntimeException e) {
+					return null;
 				}
-				return o;
 			}
 		}
 		
@@ -246,12 +596,152 @@ public interface Config extends ReplaceableConfigMap {
 			return new CachedProperty<>(property);
 		}
 		
+		public static <T> Property<T> cache(final Property<T> property, CachePolicy policy) {
+			return new PolicyCachedProperty<>(property, checkNotNull(policy));
+		}
+		
+		private static class PolicyCachedProperty<T> extends ForwardingProperty<T> {
+			
+			private final CachePolicy policy;
+			private volatile Entry<T> entry;
+			
+			public PolicyCachedProperty(Property<T> delegate, CachePolicy policy) {
+				super(delegate);
+				this.policy = policy;
+			}
+			
+			@Override
+			protected T value(ConfigSnapshot snapshot) {
+				if (snapshot != null) return delegate.value(snapshot);
+				return optional().orNull();
+			}
+			
+			@Override
+			public Optional<? extends T> optional() {
+				Entry<T> e = entry;
+				if (e != null && ! policy.isExpired(e.loadedAt, policy.getTicker().read())) {
+					return e.value;
+				}
+				return load(e);
+			}
+			
+			@Override
+			protected Optional<? extends T> optional(ConfigSnapshot snapshot) {
+				return delegate.optional(snapshot);
+			}
+			
+			@Override
+			protected T attempt(ConfigSnapshot snapshot) {
+				if (snapshot != null) return delegate.attempt(snapshot);
+				try {
+					return optional().orNull();
+				}
+				catch (RuntimeException e) {
+					return null;
+				}
+			}
+			
+			@Override
+			protected long generation() {
+				return -1;
+			}
+			
+			private synchronized Optional<? extends T> load(Entry<T> expected) {
+				Entry<T> e = entry;
+				if (e != expected) return e.value;
+				long now = policy.getTicker().read();
+				try {
+					entry = new Entry<T>(delegate.optional(), now);
+				}
+				catch (RuntimeException ex) {
+					if (policy.isStaleOnError() && e != null) return e.value;
+					throw ex;
+				}
+				if (e == null && policy.isRefreshing()) {
+					scheduleRefresh();
+				}
+				return entry.value;
+			}
+			
+			/*
+			 * Runs in the background. A failed refresh keeps the current entry so that
+			 * it is either served stale or expires and fails on the next read. A reader that
+			 * loaded while the refresh was running has the newer value, so the refresh then
+			 * leaves its entry alone.
+			 */
+			private void refresh() {
+				try {
+					Entry<T> expected = entry;
+					long now = policy.getTicker().read();
+					Optional<? extends T> o = delegate.optional();
+					synchronized (this) {
+						if (entry == expected) entry = new Entry<T>(o, now);
+					}
+				}
+				catch (RuntimeException ex) {
+					// retried on the next refresh
+				}
+				finally {
+					scheduleRefresh();
+				}
+			}
+			
+			private void scheduleRefresh() {
+				TimerWheel.shared().schedule(new RefreshTask(this), policy.getRefreshAfterNanos());
+			}
+			
+			/*
+			 * Does not keep the property alive so that unreachable cached properties stop refreshing.
+			 */
+			private static class RefreshTask implements Runnable {
+				private final WeakReference<PolicyCachedProperty<?>> ref;
+				private final Executor executor;
+				
+				RefreshTask(PolicyCachedProperty<?> property) {
+					this.ref = new WeakReference<PolicyCachedProperty<?>>(property);
+					this.executor = property.policy.getExecutor();
+				}
+				
+				@Override
+				public void run() {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							PolicyCachedProperty<?> p = ref.get();
+							if (p != null) p.refresh();
+						}
+					});
+				}
+			}
+			
+			private static final class Entry<T> {
+				final Optional<? extends T> value;
+				final long loadedAt;
+				
+				Entry(Optional<? extends T> value, long loadedAt) {
+					this.value = value;
+					this.loadedAt = loadedAt;
+				}
+			}
+		}
+		
+		/*
+		 * Every entry is stamped with the generation of the delegate that was read before the value,
+		 * so a value read just before a replace carries the old generation and is never served after it.
+		 * Delegates that do not track generations are stamped with a count of invalidations instead,
+		 * which a weak listener increments.
+		 */
 		private static class CachedProperty<T> extends ForwardingProperty<T> {
-			private volatile Optional<? extends T> cached = null;
+			private volatile Entry<T> cached = null;
+			private final boolean tracked;
+			private final AtomicLong invalidations = new AtomicLong();
 
 			public CachedProperty(Property<T> delegate) {
 				super(delegate);
-				delegate.addListener(new FutureCallback<T>() {
+				this.tracked = delegate.generation() >= 0;
+				if (tracked) return;
+				// Weak so that short lived cached properties do not pile up on the config map
+				delegate.addWeakListener(new FutureCallback<T>() {
 					@Override
 					public void onSuccess(T result) {
 						invalidate();
@@ -263,18 +753,64 @@ public interface Config extends ReplaceableConfigMap {
 				});
 			}
 			
+			private long stamp() {
+				return tracked ? delegate.generation() : invalidations.get();
+			}
+			
 			@Override
 			public Optional<? extends T> optional() {
-				Optional<? extends T> c = cached;
-				if (c == null) {
-					c = delegate.optional();
-					cached = c;
+				long stamp = stamp();
+				Entry<T> e = cached;
+				if (e != null && e.stamp == stamp) return e.value;
+				Optional<? extends T> v = delegate.optional();
+				cached = new Entry<T>(v, stamp);
+				return v;
+			}
+			
+			@Override
+			protected Optional<? extends T> optional(ConfigSnapshot snapshot) {
+				// The cached value may belong to another generation.
+				return delegate.optional(snapshot);
+			}
+			
+			@Override
+			protected T value(ConfigSnapshot snapshot) {
+				if (snapshot != null) return delegate.value(snapshot);
+				return optional().orNull();
+			}
+			
+			@Override
+			protected T attempt(ConfigSnapshot snapshot) {
+				Entry<T> e = cached;
+				if (snapshot != null || e == null || e.stamp != stamp()) {
+					return delegate.attempt(snapshot);
 				}
-				return c;
+				return e.value.orNull();
+			}
+			
+			@Override
+			protected long generation() {
+				return tracked ? delegate.generation() : -1;
+			}
+			
+			// Cached values only change with the stamp
+			@Override
+			protected long committedGeneration() {
+				return generation();
 			}
 			
 			public void invalidate() {
-				cached = null;
+				invalidations.incrementAndGet();
+			}
+			
+			private static final class Entry<T> {
+				final Optional<? extends T> value;
+				final long stamp;
+				
+				Entry(Optional<? extends T> value, long stamp) {
+					this.value = value;
+					this.stamp = stamp;
+				}
 			}
 			
 		}
@@ -298,11 +834,41 @@ public interface Config extends ReplaceableConfigMap {
 				return delegate.optional();
 			}
 			
+			@Override
+			protected Optional<? extends T> optional(ConfigSnapshot snapshot) {
+				return delegate.optional(snapshot);
+			}
+			
+			@Override
+			protected T value(ConfigSnapshot snapshot) {
+				return delegate.value(snapshot);
+			}
+			
+			@Override
+			protected T attempt(ConfigSnapshot snapshot) {
+				return delegate.attempt(snapshot);
+			}
+			
+			@Override
+			protected long generation() {
+				return delegate.generation();
+			}
+			
+			@Override
+			protected long committedGeneration() {
+				return delegate.committedGeneration();
+			}
+			
 			@Override
 			public void addListener(FutureCallback<? super T> callback) {
 				delegate.addListener(callback);
 			}
 			
+			@Override
+			public void addWeakListener(FutureCallback<? super T> callback) {
+				delegate.addWeakListener(callback);
+			}
+			
 		}
 		
 		public static <T> Property<T> absent(String key) {
@@ -323,6 +889,22 @@ public interface Config extends ReplaceableConfigMap {
 				return this.value;
 			}
 			@Override
+			protected T value(ConfigSnapshot snapshot) {
+				return this.value.orNull();
+			}
+			@Override
+			protected T attempt(ConfigSnapshot snapshot) {
+				return this.value.orNull();
+			}
+			@Override
+			protected long generation() {
+				return 0;
+			}
+			@Override
+			protected long committedGeneration() {
+				return 0;
+			}
+			@Override
 			public String getKey() {
 				return this.key;
 			}
@@ -333,6 +915,23 @@ public interface Config extends ReplaceableConfigMap {
 			private final Property<? extends T>[] properties;
 			private final CallbackExecutionList<T> callbackList = new CallbackExecutionList<T>();
 			private final AtomicBoolean callbacks = new AtomicBoolean();
+			private final AtomicBoolean weakCallbacks = new AtomicBoolean();
+			private final FutureCallback<T> dispatcher = new FutureCallback<T>() {
+				@Override
+				public void onSuccess(T result) {
+					runListener(callbackList);
+				}
+				@Override
+				public void onFailure(Throwable t) {
+					runListener(callbackList);
+				}
+			};
+
+			/*
+			 * The link that was present on the last live read and the generation of the links
+			 * before it. While those links are unchanged they are skipped.
+			 */
+			private volatile Winner winner;
 
 			public ChainedProperty(final String key, Property<? extends T>[] properties) {
 				super();
@@ -342,18 +941,105 @@ public interface Config extends ReplaceableConfigMap {
 			
 			@Override
 			public Optional<? extends T> optional() {
-				if (properties.length == 0) return Optional.absent();
+				return optional(null);
+			}
+			
+			@Override
+			protected Optional<? extends T> optional(ConfigSnapshot snapshot) {
+				return Optional.fromNullable(value(snapshot));
+			}
+			
+			// A null snapshot reads the live links.
+			@Override
+			protected T value(ConfigSnapshot snapshot) {
+				if (properties.length == 0) return null;
+				T t = find(snapshot);
+				if (t != null) return t;
+				return properties[properties.length - 1].value(snapshot);
+			}
+			
+			@Override
+			protected T attempt(ConfigSnapshot snapshot) {
+				if (properties.length == 0) return null;
+				T t = find(snapshot);
+				if (t != null) return t;
+				return properties[properties.length - 1].attempt(snapshot);
+			}
+			
+			/*
+			 * Returns the first present value of all but the last link or null.
+			 * Failing links are skipped without an exception being thrown. Links before the
+			 * last winner are only skipped while their committed generations are unchanged, so
+			 * links over maps that are mutated in place are always read.
+			 */
+			private T find(ConfigSnapshot snapshot) {
+				final int last = properties.length - 1;
 				int i = 0;
-				for (; i < properties.length - 1; i++) {
-					try {
-						Optional<? extends T> o = properties[i].optional();
-						if (o.isPresent()) return o;
-					}
-					catch (RuntimeException e) {
-						continue;
+				long generation = 0;
+				Winner w = winner;
+				if (snapshot == null && w != null && w.generation == committedGeneration(w.index)) {
+					i = w.index;
+					generation = w.generation;
+				}
+				for (; i < last; i++) {
+					long g = properties[i].committedGeneration();
+					T t = properties[i].attempt(snapshot);
+					if (t != null) {
+						if (snapshot == null) win(w, i, generation);
+						return t;
 					}
+					generation = (generation < 0 || g < 0) ? -1 : generation + g;
+				}
+				if (snapshot == null) win(w, last, generation);
+				return null;
+			}
+			
+			private void win(Winner w, int index, long generation) {
+				if (generation < 0 || index == 0) return;
+				if (w == null || w.index != index || w.generation != generation) {
+					winner = new Winner(index, generation);
+				}
+			}
+			
+			// The summed generations of the first n links or -1 if one is not tracked.
+			private long generation(int n) {
+				long sum = 0;
+				for (int i = 0; i < n; i++) {
+					long g = properties[i].generation();
+					if (g < 0) return -1;
+					sum += g;
+				}
+				return sum;
+			}
+			
+			private long committedGeneration(int n) {
+				long sum = 0;
+				for (int i = 0; i < n; i++) {
+					long g = properties[i].committedGeneration();
+					if (g < 0) return -1;
+					sum += g;
+				}
+				return sum;
+			}
+			
+			@Override
+			protected long generation() {
+				return generation(properties.length);
+			}
+			
+			@Override
+			protected long committedGeneration() {
+				return committedGeneration(properties.length);
+			}
+			
+			private static final class Winner {
+				final int index;
+				final long generation;
+				
+				Winner(int index, long generation) {
+					this.index = index;
+					this.generation = generation;
 				}
-				return properties[i].optional();
 			}
 			@Override
 			public String getKey() {
@@ -363,22 +1049,26 @@ public interface Config extends ReplaceableConfigMap {
 			public void addListener(FutureCallback<? super T> callback) {
 				super.addListener(callback);
 				if(callbacks.compareAndSet(false, true)) {
-					FutureCallback<T> dispatcher = new FutureCallback<T>() {
-						@Override
-						public void onSuccess(T result) {
-							runListener(callbackList);
-						}
-						@Override
-						public void onFailure(Throwable t) {
-							runListener(callbackList);
-						}
-					};
 					for(Property<? extends T> p : properties) {
 						p.addListener(dispatcher);
 					}
 				}
 				callbackList.add(callback, MoreExecutors.sameThreadExecutor());
 			}
+			
+			/*
+			 * The callback list belongs to this property so it can hold the callback strongly.
+			 */
+			@Override
+			public void addWeakListener(FutureCallback<? super T> callback) {
+				super.addWeakListener(callback);
+				if(weakCallbacks.compareAndSet(false, true)) {
+					for(Property<? extends T> p : properties) {
+						p.addWeakListener(dispatcher);
+					}
+				}
+				callbackList.add(callback, MoreExecutors.sameThreadExecutor());
+			}
 		}
 		
 		private static class SupplierProperty<T> extends Property<T> {
@@ -6,39 +6,75 @@ import static com.google.common.base.Preconditions.checkState;
 import static java.util.Arrays.asList;
 
 import java.beans.Introspector;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Proxy;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
+import org.configfacade.Config.Batch;
 import org.configfacade.Config.Property;
 import org.configfacade.Config.Type;
+import org.configfacade.Config.Values;
+import org.configfacade.ConfigMap.AsyncConfigMap;
+import org.configfacade.ConfigMap.CachingConfigMap;
+import org.configfacade.ConfigMap.LastKnownGoodConfigMap;
+import org.configfacade.ConfigMap.LayeredConfigMap;
+import org.configfacade.ConfigMap.NamespacedConfigMap;
+import org.configfacade.ConfigMap.PatchableConfigMap;
 import org.configfacade.ConfigMap.ReplaceableConfigMap;
+import org.configfacade.ConfigMap.VersionedConfigMap;
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Converter;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.base.Splitter;
 import com.google.common.base.Supplier;
+import com.google.common.cache.CacheBuilderSpec;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.primitives.Doubles;
 import com.google.common.primitives.Ints;
 import com.google.common.primitives.Longs;
+import com.google.common.primitives.Primitives;
 import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 
 public final class ConfigFactory {
@@ -63,6 +99,165 @@ public final class ConfigFactory {
 		return new VolatileConfigMap(m);
 	}
 
+	/**
+	 * Like {@link #replaceable(ConfigMap)} but keeps the given number of the most recent generations,
+	 * including the current one, for {@link VersionedConfigMap#rollback(long)}. Patchable maps keep
+	 * {@value VersioningConfigMap#DEFAULT_HISTORY}, other maps created by this factory keep none.
+	 */
+	public static VersionedConfigMap versioned(ConfigMap m, int history) {
+		return new VersioningConfigMap(m, history);
+	}
+
+	/**
+	 * Applies reloads and replacements of the map on a single background writer. Maps created by this
+	 * factory already are asynchronous; for other maps the futures complete once the map's own
+	 * synchronous reload or replace, including its listeners, has returned.
+	 */
+	public static AsyncConfigMap async(ReplaceableConfigMap m) {
+		if (m instanceof AsyncConfigMap) return (AsyncConfigMap) m;
+		return new QueuedConfigMap(m);
+	}
+
+	/**
+	 * Writes every committed snapshot of the map to the file in the background. Commits that
+	 * arrive during a write are coalesced and the file is replaced atomically. A write that fails
+	 * is reported to {@link ConfigTracer#snapshotWriteFailed(File, Throwable)}, a value that cannot
+	 * be encoded is left out of the snapshot and reported to
+	 * {@link ConfigTracer#valueNotPersisted(File, String, Throwable)}.
+	 * @throws IllegalArgumentException if the directory of the file does not exist
+	 */
+	public static ReplaceableConfigMap persistent(ReplaceableConfigMap m, File file) {
+		return new PersistentConfigMap(m, file, null, TimerWheel.blockingExecutor());
+	}
+	
+	/**
+	 * Serves the snapshot last written to the file right away, empty if there is none, and
+	 * loads the source in the background. Each snapshot is then written back to the file as with
+	 * {@link #persistent(ReplaceableConfigMap, File)}, so a start during an outage of the source
+	 * still has the last known good config. A reload loads the source again and keeps
+	 * the current snapshot if that fails. Loads and writes run on their own threads, apart from
+	 * the ones that refresh cached properties.
+	 * @throws IllegalArgumentException if the directory of the file does not exist
+	 */
+	public static LastKnownGoodConfigMap lastKnownGood(File file, Callable<? extends ConfigMap> source) {
+		ReplaceableConfigMap m = replaceable(toConfigMap(PersistentConfigMap.read(file)));
+		Executor executor = TimerWheel.blockingExecutor();
+		return new LastKnownGood(new PersistentConfigMap(m, file, checkNotNull(source), executor), executor);
+	}
+
+	/**
+	 * Mounts each map as an independent shard at its path. A reload of one shard does not
+	 * notify the listeners of properties in other shards.
+	 */
+	public static NamespacedConfigMap namespaced(ConfigMap root, Map<String, ? extends ConfigMap> shards) {
+		Map<String, ReplaceableConfigMap> m = Maps.newLinkedHashMap();
+		for (Map.Entry<String, ? extends ConfigMap> e : shards.entrySet()) {
+			m.put(e.getKey(), replaceable(e.getValue()));
+		}
+		return new ShardedConfigMap(replaceable(root), m);
+	}
+
+	/**
+	 * Mounts every prefix of the loader as a shard that is only loaded when a key under it is first read.
+	 * Loaded subtrees are softly referenced, so cold ones are dropped under memory pressure and loaded
+	 * again when they are next read. {@link ConfigMap#getRawKeys()} lists the keys supplied by the loader
+	 * without loading the subtrees, or otherwise the keys remembered from the last load.
+	 */
+	public static NamespacedConfigMap lazy(SubtreeLoader loader) {
+		Map<String, ReplaceableConfigMap> m = Maps.newLinkedHashMap();
+		for (String prefix : loader.getPrefixes()) {
+			m.put(prefix, new LazySubtreeConfigMap(loader, prefix));
+		}
+		return new ShardedConfigMap(replaceable(toConfigMap(ImmutableMap.of())), m);
+	}
+	
+	/**
+	 * Loads the subtrees of a {@link ConfigFactory#lazy(SubtreeLoader)} map, for example one file per service.
+	 */
+	public interface SubtreeLoader {
+		
+		/**
+		 * Listing the prefixes should be cheap, nothing is loaded up front.
+		 */
+		public Iterable<String> getPrefixes();
+		
+		/**
+		 * The keys of a subtree relative to its prefix, listed without loading the values, for example
+		 * from a manifest. Null if the keys are only known once the subtree is loaded.
+		 */
+		public Iterable<String> getKeys(String prefix);
+		
+		/**
+		 * The keys of the returned map are relative to the prefix.
+		 */
+		public ConfigMap load(String prefix);
+	}
+
+	/**
+	 * Resolves <code>${path}</code> references in string values against the whole map, which makes
+	 * references across the layers of a {@link #chain(ConfigMap...)} possible. A value that is exactly one
+	 * reference keeps the type of the referenced value and a reference to a missing path makes the value absent.
+	 * <p>
+	 * Cyclic references are rejected with an {@link IllegalArgumentException} when the map is created or replaced.
+	 */
+	public static ReplaceableConfigMap interpolating(ConfigMap m) {
+		return new ResolvingConfigMap(replaceable(m));
+	}
+
+	/**
+	 * Puts a bounded cache in front of a slow map. The spec uses the Guava
+	 * {@link CacheBuilderSpec} syntax, for example <code>maximumSize=10000,expireAfterWrite=5m</code>.
+	 * Statistics are always recorded.
+	 */
+	public static CachingConfigMap cached(ConfigMap m, String spec) {
+		return cached(m, CacheBuilderSpec.parse(spec));
+	}
+	
+	public static CachingConfigMap cached(ConfigMap m, CacheBuilderSpec spec) {
+		return new BoundedCacheConfigMap(replaceable(m), spec);
+	}
+
+	/**
+	 * Makes the map a shared base for per tenant overlays. A config built with
+	 * {@link Config#withFallback(ConfigMap)} on the returned map stores only its own overrides.
+	 */
+	public static LayeredConfigMap layered(ConfigMap base) {
+		if (base instanceof LayeredConfigMap) return (LayeredConfigMap) base;
+		return new OverlayConfigMap(replaceable(base));
+	}
+
+	/**
+	 * Copies the map into an immutable trie of interned path segments. Meant for large maps
+	 * whose keys repeat the same segments, for example one subtree per tenant.
+	 */
+	public static ConfigMap compact(ConfigMap m) {
+		return CompactConfigMap.copyOf(m);
+	}
+
+	/**
+	 * The environment variables of the process under relaxed names, so <code>DB_HOST</code> is read
+	 * as <code>db.host</code>, <code>db-host</code> or <code>db_host</code> as well. The names are indexed
+	 * once, which makes the map cheap enough to sit in a {@link #chain(ConfigMap...)} and be probed on
+	 * every read. Only the dotted names are listed as keys.
+	 */
+	public static ConfigMap environment() {
+		return environment(System.getenv());
+	}
+
+	public static ConfigMap environment(Map<String, String> env) {
+		return EnvironmentConfigMap.copyOf(env);
+	}
+
+	/**
+	 * Copies the map into a persistent hash trie that takes {@link PatchableConfigMap#apply(Map) patches}.
+	 * A patch costs time and memory in the number of keys it changes rather than the size of the map.
+	 * A replace copies the whole map.
+	 */
+	public static PatchableConfigMap patchable(ConfigMap m) {
+		if (m instanceof PatchableConfigMap) return (PatchableConfigMap) m;
+		return new PatchingConfigMap(HashTrieConfigMap.copyOf(m));
+	}
+
 	public static ConfigMap chain(ConfigMap ... m) {
 		return chain(asList(m));
 	}
@@ -73,6 +268,7 @@ public final class ConfigFactory {
 	
 	@SuppressWarnings("unchecked")
 	public static <T> T bind(Config config, Class<? extends T> clazz) {
+		HotKeys.bound(clazz);
 		Class<?>[] interfaces = {clazz};
 		ConfigInvocationHandler h = new ConfigInvocationHandler(config, false);
 		return (T) Proxy.newProxyInstance(ConfigFactory.class.getClassLoader(), interfaces, h);
@@ -80,6 +276,7 @@ public final class ConfigFactory {
 	
 	@SuppressWarnings("unchecked")
 	public static <T> T bind(Config config, Class<? extends T> clazz, BindConfig bc) {
+		HotKeys.bound(clazz);
 		Class<?>[] interfaces = {clazz};
 		ConfigInvocationHandler h = new ConfigInvocationHandler(config, bc.isAllowMissing());
 		return (T) Proxy.newProxyInstance(ConfigFactory.class.getClassLoader(), interfaces, h);
@@ -97,6 +294,166 @@ public final class ConfigFactory {
 		}
 	}
 	
+	/*
+	 * Resolves the property methods of the interface, including inherited ones, into the cache
+	 * that bound proxies read.
+	 */
+	static void resolveMethods(Class<?> clazz) {
+		for (Method m : clazz.getMethods()) {
+			PropertyMethod.forMethod(m);
+		}
+	}
+	
+	/**
+	 * A batch of every property method of a bindable interface.
+	 * The paths are the same ones {@link #bind(Config, Class)} would read.
+	 */
+	public static Batch batch(Class<?> clazz) {
+		Batch.Builder b = Batch.builder();
+		for (Method m : clazz.getMethods()) {
+			PropertyMethod pm = PropertyMethod.forMethod(m);
+			if (pm != null && pm.type != null) {
+				b.add(pm.name, pm.type);
+			}
+		}
+		return b.build();
+	}
+	
+	/**
+	 * The schema of a bindable interface. Plain property methods are required,
+	 * <code>Optional</code> and <code>Supplier</code> ones are optional.
+	 */
+	public static ConfigSchema schema(Class<?> clazz) {
+		ConfigSchema.Builder b = ConfigSchema.builder();
+		for (Method m : clazz.getMethods()) {
+			PropertyMethod pm = PropertyMethod.forMethod(m);
+			if (pm == null || pm.type == null) continue;
+			if (pm.wrapping.isWrapping()) {
+				b.optional(pm.name, pm.type);
+			}
+			else {
+				b.required(pm.name, pm.type);
+			}
+		}
+		return b.build();
+	}
+	
+	/**
+	 * Checks the map and every replacement against the schema before it becomes visible.
+	 * An invalid replacement is rejected with an {@link IllegalArgumentException} and the current map stays.
+	 * <p>
+	 * A plain map is copied on every commit, so changes made to it in place only become visible
+	 * once a reload has checked them. A replaceable map from this factory checks every map it loads or is
+	 * given right before committing it, including through other references to it, and rejects a reload the
+	 * same way.
+	 * @throws IllegalArgumentException if the map is invalid or is a replaceable map that cannot check its commits,
+	 * such as interpolating, namespaced or lazy maps
+	 */
+	public static ReplaceableConfigMap validated(ConfigMap m, ConfigSchema schema) {
+		checkNotNull(schema);
+		if (m instanceof ReplaceableConfigMap) {
+			checkArgument(m instanceof Guarded, "Map cannot check its commits: %s", m);
+			schema.check(m);
+			guard((ReplaceableConfigMap) m, schema);
+			return new ValidatingConfigMap((ReplaceableConfigMap) m, schema, null);
+		}
+		ConfigMap copy = frozenCopy(m);
+		schema.check(copy);
+		VolatileConfigMap v = new VolatileConfigMap(copy);
+		v.guard(schema);
+		return new ValidatingConfigMap(v, schema, m);
+	}
+	
+	/*
+	 * Maps that check each candidate map right before they commit it, so a rejected map
+	 * never becomes visible and listeners are not notified.
+	 */
+	interface Guarded {
+		
+		void guard(ConfigSchema schema);
+	}
+	
+	static void guard(ReplaceableConfigMap m, ConfigSchema schema) {
+		checkArgument(m instanceof Guarded, "Map cannot check its commits: %s", m);
+		((Guarded) m).guard(schema);
+	}
+	
+	/*
+	 * Maps that build their snapshots on demand and can tell the generation without building one,
+	 * so cached properties validate their values without allocating.
+	 */
+	interface Generational {
+		
+		long generation();
+	}
+	
+	static long generationOf(ReplaceableConfigMap m) {
+		return m instanceof Generational ? ((Generational) m).generation() : m.snapshot().getGeneration();
+	}
+	
+	private static ConfigMap frozenCopy(ConfigMap m) {
+		Map<String, Object> o = Maps.newLinkedHashMap();
+		for (String k : m.getRawKeys()) {
+			Object v = m.get(k);
+			if (v != null) o.put(k, v);
+		}
+		return toConfigMap(ImmutableMap.copyOf(o));
+	}
+	
+	public static class PrintConfig {
+		private Charset charset = Charsets.UTF_8;
+		private int bufferSize = 8192;
+		private Executor executor;
+		private int chunkSize = 1024;
+		private int parallelism = Runtime.getRuntime().availableProcessors() * 2;
+		
+		public Charset getCharset() {
+			return charset;
+		}
+		
+		public void setCharset(Charset charset) {
+			this.charset = checkNotNull(charset);
+		}
+		
+		public int getBufferSize() {
+			return bufferSize;
+		}
+		
+		public void setBufferSize(int bufferSize) {
+			checkArgument(bufferSize > 0);
+			this.bufferSize = bufferSize;
+		}
+		
+		/**
+		 * When set, lines are formatted in parallel on this executor. Null (the default) prints sequentially.
+		 */
+		public Executor getExecutor() {
+			return executor;
+		}
+		
+		public void setExecutor(Executor executor) {
+			this.executor = executor;
+		}
+		
+		public int getChunkSize() {
+			return chunkSize;
+		}
+		
+		public void setChunkSize(int chunkSize) {
+			checkArgument(chunkSize > 0);
+			this.chunkSize = chunkSize;
+		}
+		
+		public int getParallelism() {
+			return parallelism;
+		}
+		
+		public void setParallelism(int parallelism) {
+			checkArgument(parallelism > 0);
+			this.parallelism = parallelism;
+		}
+	}
+	
 	public static Config fromBean(Class<?> c, Object o) {
 		return from(toConfigMap(c, o));
 	}
@@ -115,7 +472,7 @@ public final class ConfigFactory {
 		@Override
 		public Object get(String key) {
 			for (ConfigMap m : getMaps()) {
-				Object o = m.get(key);
+				Object o = ConfigTracer.get(m, key);
 				if (o != null) return o;
 			}
 			return null;
@@ -153,6 +510,7 @@ public final class ConfigFactory {
 		
 		private final Config config;
 		private final boolean allowMissing;
+		private final ConcurrentMap<Method, Property<?>> properties = Maps.newConcurrentMap();
 
 		public ConfigInvocationHandler(Config config, boolean allowMissing) {
 			super();
@@ -164,10 +522,24 @@ public final class ConfigFactory {
 
 		@Override
 		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			PropertyMethod pm = PropertyMethod.forMethod(method);
+			ConfigTracer t = ConfigTracer.current();
+			if (t == null) return resolve(method, pm, args);
+			Object context = t.bindStarted(method.getDeclaringClass());
+			long start = System.nanoTime();
+			try {
+				return resolve(method, pm, args);
+			}
+			finally {
+				t.bindResolved(context, method.getDeclaringClass(), config.getCurrentPath(),
+						pm == null ? method.getName() : pm.name, System.nanoTime() - start);
+			}
+		}
+		
+		private Object resolve(Method method, PropertyMethod pm, Object[] args) {
 			checkArgument(args == null);
-			PropertyMethod pm = PropertyMethod.resolve(method);
 			checkState(pm != null, "Is not a valid property: %s", method);
-			Property<?> p = config.getProperty(pm.name,pm.type);
+			Property<?> p = property(pm);
 			if (pm.wrapping.isSupplier()) {
 				return p;
 			}
@@ -180,23 +552,59 @@ public final class ConfigFactory {
 			return p.get();
 		}
 		
+		/*
+		 * Properties read through the map on every call so they are created once per method.
+		 */
+		private Property<?> property(PropertyMethod pm) {
+			Property<?> p = properties.get(pm.method);
+			if (p == null) {
+				p = pm.type != null ? config.getProperty(pm.name, pm.type) : config.getProperty(pm.name, pm.valueClass);
+				Property<?> existing = properties.putIfAbsent(pm.method, p);
+				if (existing != null) p = existing;
+			}
+			return p;
+		}
+		
 	}
 	
 	private static class PropertyMethod {
 		private final String name;
 		private final Method method;
+		// Null for types with a registered converter
 		private final Type type;
+		private final Class<?> valueClass;
 		private final WrappingType wrapping;
 		
-		public PropertyMethod(String name, Method method, Type type, WrappingType wrapping) {
+		private static final ClassValue<Map<Method, PropertyMethod>> methods = new ClassValue<Map<Method, PropertyMethod>>() {
+			@Override
+			protected Map<Method, PropertyMethod> computeValue(Class<?> c) {
+				Map<Method, PropertyMethod> m = Maps.newHashMap();
+				for (Method method : c.getDeclaredMethods()) {
+					PropertyMethod pm = resolve(method);
+					if (pm != null) m.put(method, pm);
+				}
+				return ImmutableMap.copyOf(m);
+			}
+		};
+		
+		public PropertyMethod(String name, Method method, Type type, Class<?> valueClass, WrappingType wrapping) {
 			super();
 			this.name = name;
 			this.method = method;
 			this.type = type;
+			this.valueClass = valueClass;
 			this.wrapping = wrapping;
 		}
 		
-		public static PropertyMethod resolve(Method method) {
+		/*
+		 * Resolved once per declaring class. Registering a converter for a type is rejected once
+		 * the type has been looked up, so a cached resolution never goes stale.
+		 */
+		public static PropertyMethod forMethod(Method method) {
+			return methods.get(method.getDeclaringClass()).get(method);
+		}
+		
+		private static PropertyMethod resolve(Method method) {
 			checkArgument(method != null);
 			Class<?> rtype = method.getReturnType();
 			if(rtype == null) return null;
@@ -212,24 +620,29 @@ public final class ConfigFactory {
 			else {
 				n = name;
 			}
-			final Type pt;
+			final java.lang.reflect.Type vt;
 			final WrappingType wrapping = WrappingType.resolve(rtype);
 			if ( wrapping.isWrapping() ) {
 				java.lang.reflect.Type[] rts = ((ParameterizedType)rt).getActualTypeArguments();
-				if(rts.length == 1 && rts[0] instanceof Class) {
-					pt = Type.findPropertyType((Class<?>) rts[0]);
+				if(rts.length == 1) {
+					vt = rts[0];
 				}
 				else {
 					return null;
 				}
 			}
 			else {
-				pt = Type.findPropertyType(rtype);
+				vt = rt;
 			}
 			
-			if (pt == null) return null;
-			
-			return new PropertyMethod(n, method, pt, wrapping);
+			final Type pt = Type.findPropertyType(vt);
+			if (pt != null) {
+				return new PropertyMethod(n, method, pt, Primitives.wrap(pt.getType()), wrapping);
+			}
+			if (vt instanceof Class && Converters.find((Class<?>) vt) != null) {
+				return new PropertyMethod(n, method, null, (Class<?>) vt, wrapping);
+			}
+			return null;
 		}
 		
 		public enum WrappingType {
@@ -259,74 +672,720 @@ public final class ConfigFactory {
 			public boolean isSupplier() {
 				return this == SUPPLIER;
 			}
-			
-			public boolean isOptional() {
-				return this == OPTIONAL;
+			
+			public boolean isOptional() {
+				return this == OPTIONAL;
+			}
+			
+			public static WrappingType resolve(Class<?> c) {
+				for (WrappingType t: WrappingType.values()) {
+					if (t.isType(c)) return t;
+				}
+				return NONE;
+			}
+		}
+		
+	}
+
+	private static class VolatileConfigMap implements AsyncConfigMap, ReloadQueue.Target, Guarded {
+
+		private volatile Snapshot current;
+		private final CallbackExecutionList<ConfigMap> eventBus;
+		private final ReloadQueue queue;
+		private volatile List<ConfigSchema> guards = ImmutableList.of();
+
+		public VolatileConfigMap(ConfigMap map) {
+			super();
+			this.current = new Snapshot(this, map, 0L);
+			this.eventBus = new CallbackExecutionList<ConfigMap>();
+			this.queue = new ReloadQueue(this, TimerWheel.sharedExecutor());
+		}
+		
+		@Override
+		public ListenableFuture<ConfigSnapshot> reloadAsync(boolean awaitListeners) {
+			return queue.submit(null, awaitListeners);
+		}
+		
+		@Override
+		public ListenableFuture<ConfigSnapshot> replaceAsync(ConfigMap m, boolean awaitListeners) {
+			return queue.submit(checkNotNull(m), awaitListeners);
+		}
+		
+		@Override
+		public Snapshot commit(ConfigMap m) {
+			return swap(m == null ? current.map : m);
+		}
+		
+		@Override
+		public void publish(ConfigSnapshot s) {
+			eventBus.onSuccess(((Snapshot) s).map);
+		}
+
+		public void replace(ConfigMap map) {
+			swap(map);
+			eventBus.onSuccess(map);
+		}
+		
+		@Override
+		public synchronized void guard(ConfigSchema schema) {
+			guards = ImmutableList.<ConfigSchema>builder().addAll(guards).add(checkNotNull(schema)).build();
+		}
+		
+		/*
+		 * Rejects the map before anything changes if a guard fails. The tracer counts the keys
+		 * after the lock is released.
+		 */
+		Snapshot swap(ConfigMap map) {
+			ConfigTracer t = ConfigTracer.current();
+			Object context;
+			Snapshot previous;
+			Snapshot next;
+			synchronized (this) {
+				for (ConfigSchema s : guards) {
+					s.check(map);
+				}
+				context = t == null ? null : t.reloadStarted(this);
+				previous = current;
+				next = new Snapshot(this, map, previous.getGeneration() + 1);
+				this.current = next;
+				committed(previous, next);
+			}
+			if (t != null) {
+				t.reloadCommitted(context, this, next.getGeneration(), size(map), changedKeys(previous.map, map));
+			}
+			return next;
+		}
+		
+		/*
+		 * Called with the lock held after each commit.
+		 */
+		void committed(Snapshot previous, Snapshot next) {
+		}
+		
+		private static int size(ConfigMap m) {
+			if (m instanceof HashTrieConfigMap) return ((HashTrieConfigMap) m).size();
+			return Iterables.size(m.getRawKeys());
+		}
+		
+		/*
+		 * Only walks the parts of hash tries that differ. A map reloaded in place cannot be diffed.
+		 */
+		static int changedKeys(ConfigMap before, ConfigMap after) {
+			if (before == null || before == after) return -1;
+			if (before instanceof HashTrieConfigMap && after instanceof HashTrieConfigMap) {
+				return HashTrieConfigMap.changedKeys((HashTrieConfigMap) before, (HashTrieConfigMap) after);
+			}
+			int changed = 0;
+			for (String k : after.getRawKeys()) {
+				if (! Objects.equal(before.get(k), after.get(k))) changed++;
+			}
+			for (String k : before.getRawKeys()) {
+				if (after.get(k) == null && before.get(k) != null) changed++;
+			}
+			return changed;
+		}
+
+		@Override
+		public Object get(String key) {
+			return current.map.get(key);
+		}
+
+		@Override
+		public Iterable<String> getRawKeys() {
+			return current.map.getRawKeys();
+		}
+
+		@Override
+		public boolean containsKey(String key) {
+			return current.map.containsKey(key);
+		}
+		
+		@Override
+		public void addListener(FutureCallback<ConfigMap> listener) {
+			eventBus.add(listener, MoreExecutors.sameThreadExecutor());
+		}
+		
+		@Override
+		public void addWeakListener(FutureCallback<ConfigMap> listener) {
+			eventBus.addWeak(listener, MoreExecutors.sameThreadExecutor());
+		}
+		
+		/*
+		 * The backing map may have been mutated in place so a reload
+		 * is a new generation even though the map is the same.
+		 */
+		@Override
+		public void reload() {
+			ConfigMap map = current.map;
+			swap(map);
+			eventBus.onSuccess(map);
+		}
+		
+		@Override
+		public Snapshot snapshot() {
+			return current;
+		}
+		
+		@Override
+		public String toString() {
+			return "VolatileConfigMap [current=" + current + "]";
+		}
+	}
+	
+	/*
+	 * Only maps that were asked to keep a history pin earlier generations.
+	 */
+	private static class VersioningConfigMap extends VolatileConfigMap implements VersionedConfigMap {
+
+		static final int DEFAULT_HISTORY = 4;
+
+		// Oldest first, ends with the current snapshot. Guarded by this.
+		private final Deque<Revision> history;
+		private final int historySize;
+
+		public VersioningConfigMap(ConfigMap map, int historySize) {
+			super(map);
+			checkArgument(historySize > 0, "History should keep at least the current generation: %s", historySize);
+			this.history = new ArrayDeque<Revision>(historySize + 1);
+			this.historySize = historySize;
+			history.addLast(new Revision(snapshot(), null));
+		}
+		
+		@Override
+		void committed(Snapshot previous, Snapshot next) {
+			history.addLast(new Revision(next, previous.map));
+			if (history.size() > historySize) history.removeFirst().evict();
+		}
+		
+		/*
+		 * Swaps without notifying so wrappers can update their own state under their lock first.
+		 */
+		synchronized Snapshot revert(long generation) {
+			for (Revision r : history) {
+				if (r.snapshot.getGeneration() == generation) {
+					return swap(r.snapshot.map);
+				}
+			}
+			throw new IllegalArgumentException("Generation is no longer in the history: " + generation);
+		}
+		
+		@Override
+		public ConfigSnapshot rollback(long generation) {
+			Snapshot s = revert(generation);
+			publish(s);
+			return s;
+		}
+		
+		@Override
+		public List<ConfigRevision> getHistory() {
+			List<Revision> revisions;
+			synchronized (this) {
+				revisions = ImmutableList.copyOf(history);
+			}
+			List<ConfigRevision> result = Lists.newArrayListWithCapacity(revisions.size());
+			for (Revision r : revisions) {
+				result.add(r.toRevision());
+			}
+			return result;
+		}
+		
+		@Override
+		public String toString() {
+			return "VersioningConfigMap [current=" + snapshot() + "]";
+		}
+	}
+	
+	/*
+	 * Validation itself happens where the wrapped map commits. A plain map is kept as the source
+	 * of frozen copies so changes made to it in place are checked before they are visible.
+	 */
+	private static class ValidatingConfigMap implements ReplaceableConfigMap, Guarded {
+		
+		private final ReplaceableConfigMap map;
+		private final ConfigSchema schema;
+		// Null if the wrapped map is given the candidates themselves
+		private ConfigMap source;
+		
+		public ValidatingConfigMap(ReplaceableConfigMap map, ConfigSchema schema, ConfigMap source) {
+			super();
+			this.map = map;
+			this.schema = checkNotNull(schema);
+			this.source = source;
+		}
+
+		@Override
+		public synchronized void replace(ConfigMap m) {
+			if (source == null) {
+				map.replace(m);
+				return;
+			}
+			map.replace(frozenCopy(m));
+			source = m;
+		}
+		
+		@Override
+		public synchronized void reload() {
+			if (source == null) map.reload();
+			else map.replace(frozenCopy(source));
+		}
+		
+		@Override
+		public void guard(ConfigSchema s) {
+			ConfigFactory.guard(map, s);
+		}
+
+		@Override
+		public Object get(String key) {
+			return map.get(key);
+		}
+
+		@Override
+		public Iterable<String> getRawKeys() {
+			return map.getRawKeys();
+		}
+
+		@Override
+		public boolean containsKey(String key) {
+			return map.containsKey(key);
+		}
+
+		@Override
+		public void addListener(FutureCallback<ConfigMap> listener) {
+			map.addListener(listener);
+		}
+
+		@Override
+		public void addWeakListener(FutureCallback<ConfigMap> listener) {
+			map.addWeakListener(listener);
+		}
+
+		@Override
+		public ConfigSnapshot snapshot() {
+			return map.snapshot();
+		}
+		
+		@Override
+		public String toString() {
+			return "ValidatingConfigMap [map=" + map + ", schema=" + schema + "]";
+		}
+	}
+	
+	private static class PatchingConfigMap implements PatchableConfigMap, Guarded {
+		
+		// Only written while holding the lock
+		private HashTrieConfigMap trie;
+		private final VersioningConfigMap map;
+		
+		public PatchingConfigMap(HashTrieConfigMap trie) {
+			super();
+			this.trie = trie;
+			this.map = new VersioningConfigMap(trie, VersioningConfigMap.DEFAULT_HISTORY);
+		}
+
+		/*
+		 * Listeners are notified outside the lock so they may apply patches themselves.
+		 */
+		@Override
+		public ConfigSnapshot apply(Map<String, ? extends Object> patch) {
+			ConfigSnapshot s;
+			synchronized (this) {
+				HashTrieConfigMap next = trie.with(patch);
+				if (next == trie) return map.snapshot();
+				s = map.commit(next);
+				trie = next;
+			}
+			map.publish(s);
+			return s;
+		}
+
+		@Override
+		public void replace(ConfigMap m) {
+			HashTrieConfigMap next = HashTrieConfigMap.copyOf(m);
+			ConfigSnapshot s;
+			synchronized (this) {
+				s = map.commit(next);
+				trie = next;
+			}
+			map.publish(s);
+		}
+		
+		@Override
+		public void reload() {
+			map.reload();
+		}
+		
+		@Override
+		public ConfigSnapshot rollback(long generation) {
+			Snapshot s;
+			synchronized (this) {
+				s = map.revert(generation);
+				trie = (HashTrieConfigMap) s.map;
+			}
+			map.publish(s);
+			return s;
+		}
+		
+		@Override
+		public List<ConfigRevision> getHistory() {
+			return map.getHistory();
+		}
+		
+		@Override
+		public void guard(ConfigSchema schema) {
+			map.guard(schema);
+		}
+
+		@Override
+		public Object get(String key) {
+			return map.get(key);
+		}
+
+		@Override
+		public Iterable<String> getRawKeys() {
+			return map.getRawKeys();
+		}
+
+		@Override
+		public boolean containsKey(String key) {
+			return map.containsKey(key);
+		}
+
+		@Override
+		public void addListener(FutureCallback<ConfigMap> listener) {
+			map.addListener(listener);
+		}
+
+		@Override
+		public void addWeakListener(FutureCallback<ConfigMap> listener) {
+			map.addWeakListener(listener);
+		}
+
+		@Override
+		public ConfigSnapshot snapshot() {
+			return map.snapshot();
+		}
+		
+		@Override
+		public String toString() {
+			return "PatchingConfigMap [map=" + map + "]";
+		}
+	}
+	
+	private static class QueuedConfigMap implements AsyncConfigMap, ReloadQueue.Target, Guarded {
+		
+		private final ReplaceableConfigMap map;
+		private final ReloadQueue queue;
+		
+		public QueuedConfigMap(ReplaceableConfigMap map) {
+			this(map, TimerWheel.sharedExecutor());
+		}
+
+		public QueuedConfigMap(ReplaceableConfigMap map, Executor executor) {
+			super();
+			this.map = checkNotNull(map);
+			this.queue = new ReloadQueue(this, executor);
+		}
+
+		@Override
+		public ListenableFuture<ConfigSnapshot> reloadAsync(boolean awaitListeners) {
+			return queue.submit(null, awaitListeners);
+		}
+
+		@Override
+		public ListenableFuture<ConfigSnapshot> replaceAsync(ConfigMap m, boolean awaitListeners) {
+			return queue.submit(checkNotNull(m), awaitListeners);
+		}
+		
+		// The wrapped map notifies its listeners itself.
+		@Override
+		public ConfigSnapshot commit(ConfigMap m) {
+			if (m == null) map.reload();
+			else map.replace(m);
+			return map.snapshot();
+		}
+		
+		@Override
+		public void publish(ConfigSnapshot s) {
+		}
+
+		@Override
+		public Object get(String key) {
+			return map.get(key);
+		}
+
+		@Override
+		public Iterable<String> getRawKeys() {
+			return map.getRawKeys();
+		}
+
+		@Override
+		public boolean containsKey(String key) {
+			return map.containsKey(key);
+		}
+
+		@Override
+		public void reload() {
+			map.reload();
+		}
+
+		@Override
+		public void replace(ConfigMap m) {
+			map.replace(m);
+		}
+		
+		@Override
+		public void guard(ConfigSchema schema) {
+			ConfigFactory.guard(map, schema);
+		}
+
+		@Override
+		public void addListener(FutureCallback<ConfigMap> listener) {
+			map.addListener(listener);
+		}
+
+		@Override
+		public void addWeakListener(FutureCallback<ConfigMap> listener) {
+			map.addWeakListener(listener);
+		}
+
+		@Override
+		public ConfigSnapshot snapshot() {
+			return map.snapshot();
+		}
+		
+		@Override
+		public String toString() {
+			return "QueuedConfigMap [map=" + map + "]";
+		}
+	}
+	
+	private static final class LastKnownGood extends QueuedConfigMap implements LastKnownGoodConfigMap {
+		
+		private final ListenableFuture<ConfigSnapshot> initialLoad;
+		
+		public LastKnownGood(PersistentConfigMap map, Executor executor) {
+			super(map, executor);
+			this.initialLoad = reloadAsync(false);
+		}
+
+		@Override
+		public ListenableFuture<ConfigSnapshot> getInitialLoad() {
+			return initialLoad;
+		}
+	}
+	
+	/*
+	 * Changed keys are counted right away between hash tries, where that takes time proportional
+	 * to the change, and when first listed between other immutable maps. Maps that may change in
+	 * place no longer hold what they held at the commit, so their count is unknown.
+	 */
+	private static final class Revision {
+		
+		private final Snapshot snapshot;
+		private final long timestamp;
+		// Only held until the changed keys are counted or the revision leaves the history
+		private ConfigMap previous;
+		private int changedKeys = -1;
+		
+		public Revision(Snapshot snapshot, ConfigMap previous) {
+			super();
+			this.snapshot = snapshot;
+			this.timestamp = System.currentTimeMillis();
+			ConfigMap m = snapshot.map;
+			if (previous == null || previous == m || ! Snapshot.isImmutable(previous) || ! Snapshot.isImmutable(m)) {
+				return;
+			}
+			if (previous instanceof HashTrieConfigMap && m instanceof HashTrieConfigMap) {
+				this.changedKeys = VolatileConfigMap.changedKeys(previous, m);
 			}
-			
-			public static WrappingType resolve(Class<?> c) {
-				for (WrappingType t: WrappingType.values()) {
-					if (t.isType(c)) return t;
-				}
-				return NONE;
+			else {
+				this.previous = previous;
 			}
 		}
 		
+		synchronized void evict() {
+			previous = null;
+		}
+		
+		synchronized ConfigRevision toRevision() {
+			if (previous != null) {
+				changedKeys = VolatileConfigMap.changedKeys(previous, snapshot.map);
+				previous = null;
+			}
+			return new ConfigRevision(snapshot.getGeneration(), timestamp, changedKeys);
+		}
 	}
-
-	private static class VolatileConfigMap implements ReplaceableConfigMap {
-
-		private volatile ConfigMap map;
-		private final CallbackExecutionList<ConfigMap> eventBus;
-
-		public VolatileConfigMap(ConfigMap map) {
+	
+	private static final class Snapshot implements ConfigSnapshot {
+		
+		private final ReplaceableConfigMap source;
+		private final ConfigMap map;
+		private final long generation;
+		private final String prefix;
+		
+		public Snapshot(ReplaceableConfigMap source, ConfigMap map, long generation) {
+			this(source, map, generation, "");
+		}
+		
+		public Snapshot(ReplaceableConfigMap source, ConfigMap map, long generation, String prefix) {
 			super();
+			this.source = source;
 			this.map = map;
-			this.eventBus = new CallbackExecutionList<ConfigMap>();
+			this.generation = generation;
+			this.prefix = prefix;
 		}
-
-		public void replace(ConfigMap map) {
-			this.map = map;
-			eventBus.onSuccess(map);
+		
+		/*
+		 * Resolves a snapshot handed to a property of a config backed by source.
+		 * Returns the map in the key space of source.
+		 */
+		static ConfigMap resolve(ConfigSnapshot snapshot, ReplaceableConfigMap source) {
+			checkArgument(snapshot instanceof Snapshot && ((Snapshot) snapshot).source == source, 
+					"Snapshot was not taken from this config: %s", snapshot);
+			return ((Snapshot) snapshot).map;
+		}
+		
+		/*
+		 * Whether the map of the snapshot is known to never change, so its values only change
+		 * along with the generation. Views of mutable maps are not.
+		 */
+		static boolean isImmutable(ConfigSnapshot snapshot) {
+			return snapshot instanceof Snapshot && isImmutable(((Snapshot) snapshot).map);
+		}
+		
+		static boolean isImmutable(ConfigMap m) {
+			return m instanceof HashTrieConfigMap || m instanceof CompactConfigMap || m instanceof EnvironmentConfigMap
+					|| (m instanceof MapMapLike && ((MapMapLike) m).map instanceof ImmutableMap);
+		}
+		
+		public Snapshot at(String path) {
+			return path.isEmpty() ? this : new Snapshot(source, map, generation, prefix + path);
 		}
 
 		@Override
 		public Object get(String key) {
-			return map.get(key);
+			return map.get(prefix.isEmpty() ? key : prefix + key);
 		}
 
 		@Override
 		public Iterable<String> getRawKeys() {
-			return map.getRawKeys();
+			if (prefix.isEmpty()) return map.getRawKeys();
+			Iterable<String> f = Iterables.filter(map.getRawKeys(), new Predicate<String>() {
+				@Override
+				public boolean apply(String input) {
+					return isSubPath(prefix, input);
+				}
+			});
+			return Iterables.transform(f, new Function<String, String>() {
+				@Override
+				public String apply(String input) {
+					return removeStart(input, prefix);
+				}
+			});
 		}
 
 		@Override
 		public boolean containsKey(String key) {
-			return map.containsKey(key);
+			return map.containsKey(prefix.isEmpty() ? key : prefix + key);
 		}
-		
+
 		@Override
-		public void addListener(FutureCallback<ConfigMap> listener) {
-			eventBus.add(listener, MoreExecutors.sameThreadExecutor());
+		public long getGeneration() {
+			return generation;
 		}
+
 		@Override
-		public void reload() {
-			eventBus.onSuccess(map);
+		public String toString() {
+			return "Snapshot [generation=" + generation + ", prefix=" + prefix + ", map=" + map + "]";
 		}
 	}
 
 	public static String prettyPrint(Config c) {
-		StringBuilder sb = new StringBuilder();
-		sb.append("\n");
-		for (String k : c.getPaths()) {
-			sb.append(k)
-				.append("=")
-				.append(c.getString(k)
-					.toOptional()
-					.or(""));
-			sb.append("\n");
+		StringWriter sw = new StringWriter();
+		try {
+			prettyPrint(c, sw, new PrintConfig());
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return sw.toString();
+	}
+	
+	public static void prettyPrint(Config c, OutputStream out, PrintConfig pc) throws IOException {
+		Writer w = new BufferedWriter(new OutputStreamWriter(out, pc.getCharset()), pc.getBufferSize());
+		prettyPrint(c, w, pc);
+		w.flush();
+	}
+	
+	public static void prettyPrint(Config c, WritableByteChannel out, PrintConfig pc) throws IOException {
+		Writer w = Channels.newWriter(out, pc.getCharset().newEncoder(), pc.getBufferSize());
+		prettyPrint(c, w, pc);
+		w.flush();
+	}
+	
+	/**
+	 * Streams every path of the config as <code>path=value</code> lines from a single snapshot.
+	 * Only the current chunk of lines is held in memory.
+	 */
+	public static void prettyPrint(Config c, Writer out, PrintConfig pc) throws IOException {
+		ConfigSnapshot s = c.snapshot();
+		out.write("\n");
+		if (pc.getExecutor() == null) {
+			for (String k : s.getRawKeys()) {
+				printEntry(out, s, k);
+			}
+		}
+		else {
+			prettyPrintParallel(s, out, pc);
+		}
+	}
+	
+	/*
+	 * Lines are formatted in chunks on the executor and written in order.
+	 * At most parallelism chunks are in flight at once which bounds memory.
+	 */
+	private static void prettyPrintParallel(final ConfigSnapshot s, Writer out, PrintConfig pc) throws IOException {
+		Deque<FutureTask<String>> window = new ArrayDeque<FutureTask<String>>();
+		Iterator<String> keys = s.getRawKeys().iterator();
+		try {
+			while (keys.hasNext()) {
+				final List<String> chunk = Lists.newArrayListWithCapacity(pc.getChunkSize());
+				while (keys.hasNext() && chunk.size() < pc.getChunkSize()) {
+					chunk.add(keys.next());
+				}
+				FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						StringBuilder sb = new StringBuilder();
+						for (String k : chunk) {
+							printEntry(sb, s, k);
+						}
+						return sb.toString();
+					}
+				});
+				pc.getExecutor().execute(task);
+				window.add(task);
+				if (window.size() >= pc.getParallelism()) {
+					out.write(Futures.getUnchecked(window.poll()));
+				}
+			}
+			while (! window.isEmpty()) {
+				out.write(Futures.getUnchecked(window.poll()));
+			}
+		}
+		finally {
+			for (FutureTask<String> t : window) {
+				t.cancel(false);
+			}
 		}
-		return sb.toString();
+	}
+	
+	private static void printEntry(Appendable out, ConfigSnapshot s, String k) throws IOException {
+		Object v = s.get(k);
+		out.append(k)
+			.append('=')
+			.append(v == null ? "" : v.toString())
+			.append('\n');
 	}
 
 	private final static Function<Object, String> stringFunction = new Function<Object, String>() {
@@ -346,6 +1405,144 @@ public final class ConfigFactory {
 	private static <T> Converter<String, T> converter(Function<String, T> f) {
 		return Converter.from(f, stringFunction);
 	}
+	
+	private static Converter<String, ?> converter(Type type) {
+		switch(type) {
+			case BOOLEAN:
+				return booleanConverter;
+			case DOUBLE:
+				return Doubles.stringConverter();
+			case INTEGER:
+				return Ints.stringConverter();
+			case LONG:
+				return Longs.stringConverter();
+			case STRING:
+				return Converter.<String> identity();
+			case DURATION:
+			case DATA_SIZE:
+			case LIST:
+			case SET:
+			case MAP:
+				return parsing(type);
+			default:
+				throw new IllegalStateException();
+		}
+	}
+	
+	private static Converter<String, Object> parsing(final Type type) {
+		return converter(new Function<String, Object>() {
+			public Object apply(String input) {
+				Object o = tryParse(input, type);
+				checkArgument(o != null, "Not a valid %s: '%s'", type, input);
+				return o;
+			}
+		});
+	}
+	
+	/*
+	 * Types whose parsing allocates enough to be worth parsing once per value.
+	 */
+	private static boolean isStructured(Type type) {
+		switch(type) {
+			case DURATION:
+			case DATA_SIZE:
+			case LIST:
+			case SET:
+			case MAP:
+				return true;
+			default:
+				return false;
+		}
+	}
+	
+	private static final Splitter ELEMENTS = Splitter.on(',').trimResults().omitEmptyStrings();
+	
+	/*
+	 * Accepts exactly what the converter of the type accepts but returns null instead of throwing.
+	 */
+	static Object tryParse(String s, Type type) {
+		switch(type) {
+			case BOOLEAN:
+				return Boolean.parseBoolean(s);
+			case DOUBLE:
+				return Doubles.tryParse(s.trim());
+			case INTEGER:
+				Long l = tryDecode(s);
+				if (l == null || l < Integer.MIN_VALUE || l > Integer.MAX_VALUE) return null;
+				return l.intValue();
+			case LONG:
+				return tryDecode(s);
+			case STRING:
+				return s;
+			case DURATION:
+				return Duration.tryParse(s);
+			case DATA_SIZE:
+				return DataSize.tryParse(s);
+			case LIST:
+				return ImmutableList.copyOf(ELEMENTS.split(s));
+			case SET:
+				return ImmutableSet.copyOf(ELEMENTS.split(s));
+			case MAP:
+				return tryParseMap(s);
+			default:
+				throw new IllegalStateException();
+		}
+	}
+	
+	/*
+	 * Null if an entry has no '=' or a key repeats.
+	 */
+	private static Map<String, String> tryParseMap(String s) {
+		Map<String, String> m = Maps.newLinkedHashMap();
+		for (String entry : ELEMENTS.split(s)) {
+			int i = entry.indexOf('=');
+			if (i < 0) return null;
+			String k = entry.substring(0, i).trim();
+			if (m.put(k, entry.substring(i + 1).trim()) != null) return null;
+		}
+		return ImmutableMap.copyOf(m);
+	}
+	
+	/*
+	 * Long.decode without the exception.
+	 */
+	private static Long tryDecode(String s) {
+		int i = 0;
+		boolean negative = false;
+		if (s.startsWith("-")) {
+			negative = true;
+			i++;
+		}
+		else if (s.startsWith("+")) {
+			i++;
+		}
+		int radix = 10;
+		if (s.startsWith("0x", i) || s.startsWith("0X", i)) {
+			radix = 16;
+			i += 2;
+		}
+		else if (s.startsWith("#", i)) {
+			radix = 16;
+			i++;
+		}
+		else if (s.startsWith("0", i) && s.length() > i + 1) {
+			radix = 8;
+			i++;
+		}
+		if (i == s.length()) return null;
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long min = limit / radix;
+		long result = 0;
+		// Accumulates negatively like Long.parseLong so that MIN_VALUE fits
+		for (; i < s.length(); i++) {
+			int digit = Character.digit(s.charAt(i), radix);
+			if (digit < 0 || result < min) return null;
+			result *= radix;
+			if (result < limit + digit) return null;
+			result -= digit;
+		}
+		return negative ? result : -result;
+	}
 
 	public static ConfigMap toConfigMap(Map<?, ? extends Object> m) {
 		return new MapMapLike(m);
@@ -367,7 +1564,7 @@ public final class ConfigFactory {
 			Method[] ms = this.clazz.getMethods();
 			Map<String, PropertyMethod> map = Maps.newLinkedHashMap(); //for predicatable order
 			for(Method m : ms) {
-				PropertyMethod pm = PropertyMethod.resolve(m);
+				PropertyMethod pm = PropertyMethod.forMethod(m);
 				if (pm != null) {
 					map.put(pm.name, pm);
 				}
@@ -442,18 +1639,25 @@ public final class ConfigFactory {
 
 		private final ReplaceableConfigMap map;
 		private final String basePath;
+		// Shared by every config derived with atPath so they collapse into one queue
+		private final AsyncConfigMap async;
 
 		public DefaultConfig(ReplaceableConfigMap map, String basePath) {
+			this(map, basePath, async(map));
+		}
+		
+		private DefaultConfig(ReplaceableConfigMap map, String basePath, AsyncConfigMap async) {
 			super();
 			this.map = map;
 			this.basePath = basePath;
+			this.async = async;
 		}
 
 		@Override
 		public Config atPath(String path) {
 			validatePath(path);
 			final String resolvedPath = path + ".";
-			return new DefaultConfig(this.map, resolvedPath);
+			return new DefaultConfig(this.map, resolvedPath, this.async);
 		}
 
 		@Override
@@ -481,6 +1685,31 @@ public final class ConfigFactory {
 			return getProperty(path, Type.DOUBLE);
 		}
 
+		@Override
+		public Property<Duration> getDuration(String path) {
+			return getProperty(path, Type.DURATION);
+		}
+
+		@Override
+		public Property<DataSize> getDataSize(String path) {
+			return getProperty(path, Type.DATA_SIZE);
+		}
+
+		@Override
+		public Property<List<String>> getList(String path) {
+			return getProperty(path, Type.LIST);
+		}
+
+		@Override
+		public Property<Set<String>> getSet(String path) {
+			return getProperty(path, Type.SET);
+		}
+
+		@Override
+		public Property<Map<String, String>> getMap(String path) {
+			return getProperty(path, Type.MAP);
+		}
+
 		@Override
 		public Iterable<String> getKeys() {
 			return Iterables.filter(getPaths(), new Predicate<String>() {
@@ -533,16 +1762,81 @@ public final class ConfigFactory {
 		
 		@Override
 		public <T> Property<T> getProperty(String path, Class<T> c) {
-			return getProperty(path, Type.findPropertyType(c));
+			Type t = Type.findPropertyType(c);
+			if (t != null) return getProperty(path, t);
+			Converter<String, T> converter = Converters.find(c);
+			checkArgument(converter != null, "No converter is registered for: %s", c);
+			return getProperty(path, c, null, converter);
 		}
 		
-		protected <T> Property<T> getProperty(final String path, final Class<T> c,
+		protected <T> Property<T> getProperty(final String path, final Class<T> c, final Type type,
 				final Converter<String, ? extends T> converter) {
+			final ReplaceableConfigMap source = source(path);
+			final String key = basePath + path;
+			if (type != null) HotKeys.property(key, type);
+			// Converted types are parsed once as well
+			final boolean structured = type == null || isStructured(type);
 			return new Property<T>() {
+				
+				// The last structured value and what it was parsed from
+				private volatile Parsed parsed;
 
 				@Override
 				public Optional<T> optional() {
-					return Optional.fromNullable(getValue(path, c, converter));
+					return Optional.fromNullable(value(null));
+				}
+				
+				@Override
+				protected Optional<T> optional(ConfigSnapshot snapshot) {
+					return Optional.fromNullable(value(snapshot));
+				}
+				
+				@Override
+				protected T value(ConfigSnapshot snapshot) {
+					Object raw = read(snapshot);
+					if (! structured) return convert(raw, c, converter);
+					Object v = parsed(raw);
+					if (v != null) return c.cast(v);
+					T t = convert(raw, c, converter);
+					parse(raw, t);
+					return t;
+				}
+				
+				@Override
+				protected T attempt(ConfigSnapshot snapshot) {
+					Object raw = read(snapshot);
+					Object o = structured ? parsed(raw) : null;
+					if (o != null) return c.cast(o);
+					o = tryConvert(raw, c, type, converter);
+					if (o == INVALID) return null;
+					if (structured) parse(raw, o);
+					return c.cast(o);
+				}
+				
+				private Object parsed(Object raw) {
+					Parsed p = parsed;
+					if (p == null || raw == null || ! (p.raw == raw || p.raw.equals(raw))) return null;
+					return p.value;
+				}
+				
+				private void parse(Object raw, Object value) {
+					if (raw != null && value != null && raw != value) parsed = new Parsed(raw, value);
+				}
+				
+				private Object read(ConfigSnapshot snapshot) {
+					if (snapshot == null) return map.get(key);
+					return Snapshot.resolve(snapshot, map).get(key);
+				}
+				
+				@Override
+				protected long generation() {
+					return generationOf(source);
+				}
+				
+				@Override
+				protected long committedGeneration() {
+					ConfigSnapshot s = source.snapshot();
+					return Snapshot.isImmutable(s) ? s.getGeneration() : -1;
 				}
 				
 				@Override
@@ -550,11 +1844,32 @@ public final class ConfigFactory {
 					return path;
 				}
 				
+				/*
+				 * Weak listeners are kept alive by this property only so they
+				 * go away together with it.
+				 */
+				private List<FutureCallback<ConfigMap>> retained;
+				
 				@Override
 				public void addListener(final FutureCallback<? super T> callback) {
 					super.addListener(callback);
+					source.addListener(listener(callback));
+				}
+				
+				@Override
+				public void addWeakListener(FutureCallback<? super T> callback) {
+					super.addWeakListener(callback);
+					FutureCallback<ConfigMap> l = listener(callback);
+					synchronized (this) {
+						if (retained == null) retained = Lists.newArrayListWithCapacity(1);
+						retained.add(l);
+					}
+					source.addWeakListener(l);
+				}
+				
+				private FutureCallback<ConfigMap> listener(final FutureCallback<? super T> callback) {
 					final Property<T> prop = this;
-					DefaultConfig.this.addListener(new FutureCallback<ConfigMap>() {
+					return new FutureCallback<ConfigMap>() {
 						@Override
 						public void onSuccess(ConfigMap result) {
 							prop.runListener(callback);
@@ -564,41 +1879,86 @@ public final class ConfigFactory {
 						public void onFailure(Throwable t) {
 							callback.onFailure(t);
 						}
-					});
+					};
 				}
 			};
 		}
 		
+		/*
+		 * The map whose replacement can change the key.
+		 */
+		private ReplaceableConfigMap source(String key) {
+			if (map instanceof NamespacedConfigMap) {
+				return ((NamespacedConfigMap) map).getShard(basePath + key);
+			}
+			return map;
+		}
+		
 		@SuppressWarnings("unchecked")
 		public <T> Property<T> getProperty(final String path, Type propertyType) {
 			checkNotNull(propertyType);
-			final Property<?> prop;
-			
-			switch(propertyType) {
-				case BOOLEAN:
-					prop = getProperty(path, Boolean.class, booleanConverter);
-					break;
-				case DOUBLE:
-					prop = getProperty(path, Double.class, Doubles.stringConverter());
-					break;
-				case INTEGER:
-					prop = getProperty(path, Integer.class, Ints.stringConverter());
-					break;
-				case LONG:
-					prop = getProperty(path, Long.class, Longs.stringConverter());
-					break;
-				case STRING:
-					prop = getProperty(path, String.class, Converter.<String> identity());
-					break;
-				default:
-					throw new IllegalStateException();
-			}
-			return (Property<T>) prop;
-			
+			Class<T> c = (Class<T>) Primitives.wrap(propertyType.getType());
+			return getProperty(path, c, propertyType, (Converter<String, T>) converter(propertyType));
+		}
+		
+		@Override
+		public Values getValues(Batch batch) {
+			return getValues(batch, snapshot());
+		}
+		
+		@Override
+		public Values getValues(Batch batch, ConfigSnapshot snapshot) {
+			ConfigMap m = Snapshot.resolve(snapshot, map);
+			final int size = batch.size();
+			Object[] values = new Object[size];
+			for (int i = 0; i < size; i++) {
+				Object o = m.get(basePath + batch.getPath(i));
+				try {
+					values[i] = convert(o, batch.getType(i));
+				}
+				catch (RuntimeException e) {
+					values[i] = Values.failure(e);
+				}
+			}
+			return new Values(batch, values, snapshot.getGeneration());
 		}
 
-		private <T> T getValue(String path, Class<T> c, Converter<String, ? extends T> converter) {
-			Object o = get(path);
+		@SuppressWarnings("unchecked")
+		private static Object convert(Object o, Type t) {
+			return convert(o, (Class<Object>) Primitives.wrap(t.getType()), (Converter<String, Object>) converter(t));
+		}
+		
+		private static final Object INVALID = new Object();
+		
+		private static final class Parsed {
+			final Object raw;
+			final Object value;
+			
+			Parsed(Object raw, Object value) {
+				this.raw = raw;
+				this.value = value;
+			}
+		}
+		
+		/*
+		 * Like convert but returns INVALID instead of throwing.
+		 */
+		private static Object tryConvert(Object o, Class<?> c, Type type, Converter<String, ?> converter) {
+			if (o == null || c.isInstance(o))
+				return o;
+			if (type == null) {
+				try {
+					return converter.convert(o.toString());
+				}
+				catch (RuntimeException e) {
+					return INVALID;
+				}
+			}
+			Object v = tryParse(o.toString(), type);
+			return v == null ? INVALID : v;
+		}
+		
+		private static <T> T convert(Object o, Class<T> c, Converter<String, ? extends T> converter) {
 			if (o == null)
 				return null;
 			if (c.isAssignableFrom(o.getClass())) {
@@ -609,24 +1969,12 @@ public final class ConfigFactory {
 
 		@Override
 		public Map<String, ? extends Object> toMap() {
-			return new PrefixMap() {
-
-				@Override
-				protected ConfigMap delegate() {
-					return map;
-				}
-
-				@Override
-				protected String prefix() {
-					return basePath;
-				}
-
-			};
+			return prefixMap(map, basePath);
 		}
 
 		public Properties toProperties() {
 			Properties properties = new Properties();
-			properties.putAll(toMap());
+			properties.putAll(prefixMap(snapshot(), ""));
 			return properties;
 		}
 
@@ -640,6 +1988,26 @@ public final class ConfigFactory {
 		public void reload() {
 			this.map.reload();
 		}
+		
+		@Override
+		public ListenableFuture<ConfigSnapshot> reloadAsync(boolean awaitListeners) {
+			return relative(async.reloadAsync(awaitListeners));
+		}
+		
+		@Override
+		public ListenableFuture<ConfigSnapshot> replaceAsync(ConfigMap configMap, boolean awaitListeners) {
+			checkArgument(configMap != this);
+			return relative(async.replaceAsync(configMap, awaitListeners));
+		}
+		
+		private ListenableFuture<ConfigSnapshot> relative(ListenableFuture<ConfigSnapshot> f) {
+			return Futures.transform(f, new Function<ConfigSnapshot, ConfigSnapshot>() {
+				@Override
+				public ConfigSnapshot apply(ConfigSnapshot input) {
+					return relative(input);
+				}
+			});
+		}
 
 		@Override
 		public String toString() {
@@ -648,17 +2016,24 @@ public final class ConfigFactory {
 
 		@Override
 		public Object get(String key) {
-			return this.map.get(getCurrentPath() + key);
+			return this.map.get(absolutePath(key));
 		}
 
 		@Override
 		public boolean containsKey(String key) {
-			return this.map.get(getCurrentPath() + key) != null;
+			return this.map.get(absolutePath(key)) != null;
+		}
+		
+		private String absolutePath(String key) {
+			return basePath.isEmpty() ? key : basePath + key;
 		}
 		
 		@Override
 		public Config withFallback(ConfigMap config) {
 			checkArgument(config != this);
+			if (config instanceof LayeredConfigMap) {
+				return new DefaultConfig(((LayeredConfigMap) config).overlay(map), basePath);
+			}
 			return new DefaultConfig(replaceable(chain(map, config)), basePath);
 		}
 		
@@ -666,32 +2041,60 @@ public final class ConfigFactory {
 		public void addListener(FutureCallback<ConfigMap> listener) {
 			this.map.addListener(listener);
 		}
+		
+		@Override
+		public void addWeakListener(FutureCallback<ConfigMap> listener) {
+			this.map.addWeakListener(listener);
+		}
+		
+		@Override
+		public ConfigSnapshot snapshot() {
+			return relative(this.map.snapshot());
+		}
+		
+		private ConfigSnapshot relative(ConfigSnapshot s) {
+			Snapshot root = s instanceof Snapshot && ((Snapshot) s).source == map ? 
+					(Snapshot) s : new Snapshot(map, s, s.getGeneration());
+			return root.at(basePath);
+		}
 
 	}
 	
 	
 
+	private static Map<String, Object> prefixMap(final ConfigMap m, final String p) {
+		return new PrefixMap() {
+
+			@Override
+			protected ConfigMap delegate() {
+				return m;
+			}
+
+			@Override
+			protected String prefix() {
+				return p;
+			}
+
+		};
+	}
+
 	private abstract static class PrefixMap implements Map<String, Object> {
 
 		protected abstract ConfigMap delegate();
 
 		protected abstract String prefix();
 
+		/*
+		 * Counts the same entries the entry set iterates.
+		 */
 		@Override
 		public int size() {
-			final String p = prefix();
-			int i = 0;
-			for (String k : delegate().getRawKeys()) {
-				startsWith(k, p);
-				i++;
-			}
-			return i;
-
+			return Iterators.size(entries());
 		}
 
 		@Override
 		public boolean isEmpty() {
-			return size() > 0;
+			return ! entries().hasNext();
 		}
 
 		@Override
@@ -732,41 +2135,59 @@ public final class ConfigFactory {
 		@Override
 		public Set<String> keySet() {
 			Set<String> s = Sets.newLinkedHashSet();
-			for (String k : delegate().getRawKeys()) {
-				if (isKeyMatch(k)) {
-					s.add(removeStart(k, prefix()));
-				}
+			for (Iterator<Map.Entry<String, Object>> i = entries(); i.hasNext();) {
+				s.add(i.next().getKey());
 			}
 			return s;
 		}
 
 		@Override
 		public Collection<Object> values() {
-			Iterable<String> i = Iterables.filter(delegate().getRawKeys(), new Predicate<String>() {
+			ImmutableList.Builder<Object> b = ImmutableList.builder();
+			for (Iterator<Map.Entry<String, Object>> i = entries(); i.hasNext();) {
+				b.add(i.next().getValue());
+			}
+			return b.build();
+		}
+
+		@Override
+		public Set<java.util.Map.Entry<String, Object>> entrySet() {
+			return new AbstractSet<Map.Entry<String, Object>>() {
 
 				@Override
-				public boolean apply(String input) {
-					return isKeyMatch(input);
+				public Iterator<Map.Entry<String, Object>> iterator() {
+					return entries();
 				}
 
-			});
-
-			Iterable<Object> values = Iterables.transform(i, new Function<String, Object>() {
-
 				@Override
-				public Object apply(String input) {
-					return get(input);
+				public int size() {
+					return PrefixMap.this.size();
 				}
-
-			});
-
-			return ImmutableList.copyOf(values);
+			};
 		}
 
-		@Override
-		public Set<java.util.Map.Entry<String, Object>> entrySet() {
-			throw new UnsupportedOperationException("clear is not yet supported");
-
+		/*
+		 * A single lazy pass over the raw keys. Chained maps list a key once per layer that has it,
+		 * so keys already returned are skipped, as are keys whose value disappeared since they
+		 * were listed.
+		 */
+		private Iterator<Map.Entry<String, Object>> entries() {
+			final Iterator<String> keys = delegate().getRawKeys().iterator();
+			final Set<String> seen = Sets.newHashSet();
+			return new AbstractIterator<Map.Entry<String, Object>>() {
+				@Override
+				protected Map.Entry<String, Object> computeNext() {
+					while (keys.hasNext()) {
+						String k = keys.next();
+						if (! isKeyMatch(k) || ! seen.add(k)) continue;
+						Object v = delegate().get(k);
+						if (v != null) {
+							return Maps.immutableEntry(removeStart(k, prefix()), v);
+						}
+					}
+					return endOfData();
+				}
+			};
 		}
 
 		private boolean isKeyMatch(String s) {
@@ -1,6 +1,11 @@
 package org.configfacade;
 
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.cache.CacheStats;
 import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.ListenableFuture;
 
 public interface ConfigMap {
 
@@ -17,5 +22,118 @@ public interface ConfigMap {
         public void replace(ConfigMap m);
 
         public void addListener(FutureCallback<ConfigMap> listener);
+
+        /**
+         * Like {@link #addListener(FutureCallback)} but the listener is only weakly referenced
+         * and is dropped once it has been garbage collected.
+         */
+        public void addWeakListener(FutureCallback<ConfigMap> listener);
+
+        /**
+         * The current generation of this map. Never blocks and never copies.
+         */
+        public ConfigSnapshot snapshot();
+    }
+
+    /**
+     * Reloads and replaces without blocking the caller. Requests are applied one at a time and
+     * requests that queue up behind a running one are collapsed into a single commit.
+     */
+    public interface AsyncConfigMap extends ReplaceableConfigMap {
+
+        /**
+         * @param awaitListeners whether the future waits for the listeners to be notified
+         * or only until the new snapshot is visible.
+         * @return the committed snapshot, which may include later requests that were collapsed with this one.
+         */
+        public ListenableFuture<ConfigSnapshot> reloadAsync(boolean awaitListeners);
+
+        public ListenableFuture<ConfigSnapshot> replaceAsync(ConfigMap m, boolean awaitListeners);
+    }
+
+    /**
+     * Serves the last snapshot persisted to a file while its source loads for the first time.
+     */
+    public interface LastKnownGoodConfigMap extends AsyncConfigMap {
+
+        /**
+         * The first load of the source, started when the map was created. It fails if the source
+         * could not be loaded, in which case the map keeps serving the persisted snapshot.
+         */
+        public ListenableFuture<ConfigSnapshot> getInitialLoad();
+    }
+
+    /**
+     * Caches the values of a slow map. Values are only served from the cache while the
+     * generation they were loaded at is current.
+     */
+    public interface CachingConfigMap extends ReplaceableConfigMap {
+
+        public CacheStats getStats();
+
+        public void invalidateAll();
+    }
+
+    /**
+     * A base shared by many overlays that each only store their own overrides. Replacing or
+     * reloading the base notifies the listeners of every overlay.
+     */
+    public interface LayeredConfigMap extends ReplaceableConfigMap {
+
+        /**
+         * Reads the overrides first and then this map. The overrides are not copied so they should
+         * be replaced rather than mutated. Replacing or reloading the overlay leaves the base alone.
+         */
+        public ReplaceableConfigMap overlay(ConfigMap overrides);
+    }
+
+    /**
+     * Mounts independent shards at path prefixes. Keys under a mount are owned by its shard and
+     * are stored in the shard without the mount prefix. Replacing a shard only notifies listeners
+     * of that shard. All other keys belong to the root shard, which {@link #replace(ConfigMap)} replaces.
+     */
+    public interface NamespacedConfigMap extends ReplaceableConfigMap {
+
+        /**
+         * The shard that owns the key, which is the root shard if no mount matches.
+         */
+        public ReplaceableConfigMap getShard(String key);
+
+        public Map<String, ReplaceableConfigMap> getMounts();
+    }
+
+    /**
+     * Keeps a bounded history of the most recently committed generations. Each one pins its map,
+     * which costs little for maps that share structure between generations. Only maps created as
+     * versioned or patchable keep a history.
+     */
+    public interface VersionedConfigMap extends ReplaceableConfigMap {
+
+        /**
+         * The generations still in the history, oldest first and ending with the current one.
+         */
+        public List<ConfigRevision> getHistory();
+
+        /**
+         * Commits the map of an earlier generation again as a new generation and notifies the listeners.
+         * Takes constant time since nothing is reloaded or copied. A map reloaded in place cannot be rolled
+         * back to its earlier contents.
+         * @throws IllegalArgumentException if the generation is no longer in the history
+         */
+        public ConfigSnapshot rollback(long generation);
+    }
+
+    /**
+     * Applies patches to a persistent map. A patch copies only the parts of the map on the paths of its
+     * keys and shares the rest with the previous generation, so snapshots that are still held stay valid.
+     */
+    public interface PatchableConfigMap extends VersionedConfigMap {
+
+        /**
+         * Commits the patch as one new generation and notifies the listeners once. A null value removes
+         * the key. A patch that changes nothing does not commit.
+         * @return the committed snapshot, or the current one if nothing changed.
+         */
+        public ConfigSnapshot apply(Map<String, ? extends Object> patch);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,42 @@
+package org.configfacade;
+
+/**
+ * One committed generation of a {@link ConfigMap.VersionedConfigMap}.
+ */
+public final class ConfigRevision {
+
+	private final long generation;
+	private final long timestamp;
+	private final int changedKeys;
+
+	ConfigRevision(long generation, long timestamp, int changedKeys) {
+		this.generation = generation;
+		this.timestamp = timestamp;
+		this.changedKeys = changedKeys;
+	}
+
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * When the generation was committed, in milliseconds since the epoch.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * The keys added, removed or changed relative to the previous generation. -1 if unknown,
+	 * which it is for the first generation and whenever either map may change in place.
+	 */
+	public int getChangedKeys() {
+		return changedKeys;
+	}
+
+	@Override
+	public String toString() {
+		return "ConfigRevision [generation=" + generation + ", timestamp=" + timestamp + ", changedKeys="
+				+ changedKeys + "]";
+	}
+}
@@ -0,0 +1,169 @@
+package org.configfacade;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import org.configfacade.Config.Type;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Primitives;
+import com.google.common.util.concurrent.Futures;
+
+/**
+ * The typed paths a config has to satisfy, usually derived from bound interfaces with
+ * {@link ConfigFactory#schema(Class)}. A map can be checked as a whole before it is swapped in
+ * with {@link ConfigFactory#validated(ConfigMap, ConfigSchema)}, so a value that does not
+ * convert is rejected on replace instead of failing a later read.
+ * <p>
+ * Large schemas are checked in parallel chunks on the shared daemon pool.
+ */
+public final class ConfigSchema {
+
+	private static final int CHUNK_SIZE = 512;
+
+	private final String[] paths;
+	private final Type[] types;
+	private final boolean[] required;
+
+	private ConfigSchema(String[] paths, Type[] types, boolean[] required) {
+		this.paths = paths;
+		this.types = types;
+		this.required = required;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public int size() {
+		return paths.length;
+	}
+
+	/**
+	 * Every violation of the map, empty if it is valid.
+	 */
+	public List<String> validate(ConfigMap m) {
+		checkNotNull(m);
+		if (paths.length <= CHUNK_SIZE) {
+			List<String> violations = Lists.newArrayList();
+			validate(m, 0, paths.length, violations);
+			return violations;
+		}
+		return validateParallel(m, TimerWheel.sharedExecutor());
+	}
+
+	/**
+	 * @throws IllegalArgumentException listing every violation
+	 */
+	public void check(ConfigMap m) throws IllegalArgumentException {
+		List<String> violations = validate(m);
+		if (! violations.isEmpty()) {
+			throw new IllegalArgumentException("Invalid config: " + Joiner.on("; ").join(violations));
+		}
+	}
+
+	private List<String> validateParallel(final ConfigMap m, Executor executor) {
+		List<FutureTask<List<String>>> tasks = Lists.newArrayList();
+		for (int start = CHUNK_SIZE; start < paths.length; start += CHUNK_SIZE) {
+			final int from = start;
+			final int to = Math.min(start + CHUNK_SIZE, paths.length);
+			FutureTask<List<String>> task = new FutureTask<List<String>>(new Callable<List<String>>() {
+				@Override
+				public List<String> call() {
+					List<String> violations = Lists.newArrayList();
+					validate(m, from, to, violations);
+					return violations;
+				}
+			});
+			executor.execute(task);
+			tasks.add(task);
+		}
+		List<String> violations = Lists.newArrayList();
+		validate(m, 0, CHUNK_SIZE, violations);
+		for (FutureTask<List<String>> t : tasks) {
+			// Runs the chunk here if the pool has not started it yet
+			t.run();
+			violations.addAll(Futures.getUnchecked(t));
+		}
+		return violations;
+	}
+
+	private void validate(ConfigMap m, int from, int to, List<String> violations) {
+		for (int i = from; i < to; i++) {
+			Object o = m.get(paths[i]);
+			if (o == null) {
+				if (required[i]) violations.add("'" + paths[i] + "' is missing");
+				continue;
+			}
+			Type t = types[i];
+			if (Primitives.wrap(t.getType()).isInstance(o)) continue;
+			if (ConfigFactory.tryParse(o.toString(), t) == null) {
+				violations.add("'" + paths[i] + "' should be " + t + " but was '" + o + "'");
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ConfigSchema " + Arrays.toString(paths);
+	}
+
+	public static class Builder {
+		private final List<String> paths = Lists.newArrayList();
+		private final List<Type> types = Lists.newArrayList();
+		private final List<Boolean> required = Lists.newArrayList();
+		private final Set<String> seen = Sets.newHashSet();
+
+		public Builder required(String path, Type type) {
+			return add(path, type, true);
+		}
+
+		public Builder optional(String path, Type type) {
+			return add(path, type, false);
+		}
+
+		/**
+		 * Adds the schema below a path, for interfaces that are bound to <code>config.atPath(path)</code>.
+		 */
+		public Builder include(String path, ConfigSchema schema) {
+			ConfigFactory.validatePath(path);
+			for (int i = 0; i < schema.paths.length; i++) {
+				add(path + "." + schema.paths[i], schema.types[i], schema.required[i]);
+			}
+			return this;
+		}
+
+		public Builder include(ConfigSchema schema) {
+			for (int i = 0; i < schema.paths.length; i++) {
+				add(schema.paths[i], schema.types[i], schema.required[i]);
+			}
+			return this;
+		}
+
+		private Builder add(String path, Type type, boolean required) {
+			checkArgument(seen.add(checkNotNull(path)), "Path is already part of the schema: '%s'", path);
+			paths.add(path);
+			types.add(checkNotNull(type));
+			this.required.add(required);
+			return this;
+		}
+
+		public ConfigSchema build() {
+			boolean[] r = new boolean[required.size()];
+			for (int i = 0; i < r.length; i++) {
+				r[i] = required.get(i);
+			}
+			return new ConfigSchema(paths.toArray(new String[paths.size()]),
+					types.toArray(new Type[types.size()]), r);
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package org.configfacade;
+
+/**
+ * An immutable view of a {@link ConfigMap.ReplaceableConfigMap} pinned at one generation.
+ * <p>
+ * Every read through a snapshot sees the same backing map even if the owner is replaced
+ * concurrently. Taking a snapshot does not copy anything: it only pins the map that was
+ * current at the time, so it is exactly as immutable as that map.
+ * <p>
+ * Pass a snapshot to {@link Config.Property#get(ConfigSnapshot)} to read several properties
+ * from one consistent generation without locking.
+ */
+public interface ConfigSnapshot extends ConfigMap {
+
+    /**
+     * Increases monotonically every time the owning map is replaced or reloaded.
+     */
+    public long getGeneration();
+}
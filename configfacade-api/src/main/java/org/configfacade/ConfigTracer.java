@@ -0,0 +1,128 @@
+package org.configfacade;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.configfacade.ConfigMap.ReplaceableConfigMap;
+
+/**
+ * Receives timings of reloads, listener dispatch, slow map reads and bind resolution, and failed
+ * writes of persisted snapshots, for example to emit Flight Recorder events. At most one tracer
+ * is installed. While none is, each traced call site costs a single volatile read.
+ * <p>
+ * Methods are called on the thread doing the work and should return quickly.
+ * Every method does nothing by default so tracers only override what they record.
+ */
+public abstract class ConfigTracer {
+
+	private static volatile ConfigTracer current;
+
+	public static synchronized void install(ConfigTracer tracer) {
+		current = tracer;
+	}
+
+	/**
+	 * Only uninstalls the tracer if it is the installed one.
+	 */
+	public static synchronized void uninstall(ConfigTracer tracer) {
+		if (current == tracer) current = null;
+	}
+
+	static ConfigTracer current() {
+		return current;
+	}
+
+	/**
+	 * Reads slower than this are reported to {@link #slowGet(Object, ConfigMap, String, long)}.
+	 */
+	public long getSlowGetThresholdNanos() {
+		return TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	/**
+	 * @return a context that is handed to {@link #reloadCommitted(Object, ReplaceableConfigMap, long, int, int)}.
+	 */
+	public Object reloadStarted(ReplaceableConfigMap map) {
+		return null;
+	}
+
+	/**
+	 * @param changedKeys keys that were added, removed or changed or -1 if the map was reloaded in place.
+	 */
+	public void reloadCommitted(Object context, ReplaceableConfigMap map, long generation, int keys, int changedKeys) {
+	}
+
+	/**
+	 * @return a context that is handed to {@link #listenerDispatched(Object, Object, long, Throwable)}.
+	 */
+	public Object listenerStarted(Object listener) {
+		return null;
+	}
+
+	/**
+	 * @param failure what the listener threw or null.
+	 */
+	public void listenerDispatched(Object context, Object listener, long nanos, Throwable failure) {
+	}
+
+	/**
+	 * Called before every traced read of a backend map.
+	 * @return a context that is handed to {@link #slowGet(Object, ConfigMap, String, long)}.
+	 */
+	public Object getStarted(ConfigMap map, String key) {
+		return null;
+	}
+
+	/**
+	 * @param map the layer or backend that was slow.
+	 */
+	public void slowGet(Object context, ConfigMap map, String key, long nanos) {
+	}
+
+	/**
+	 * @return a context that is handed to {@link #bindResolved(Object, Class, String, String, long)}.
+	 */
+	public Object bindStarted(Class<?> bound) {
+		return null;
+	}
+
+	/**
+	 * The path of the property is the base path followed by the property name. They are passed apart
+	 * so that only tracers that record the path pay for joining them.
+	 */
+	public void bindResolved(Object context, Class<?> bound, String basePath, String property, long nanos) {
+	}
+
+	/**
+	 * A snapshot of a persistent map could not be written. The file still holds the previous
+	 * snapshot and the next commit is written again.
+	 */
+	public void snapshotWriteFailed(File file, Throwable failure) {
+	}
+
+	/**
+	 * A value of a persistent map could not be encoded and was left out of the snapshot, the
+	 * rest of the snapshot is still written.
+	 */
+	public void valueNotPersisted(File file, String key, Throwable failure) {
+	}
+
+	/*
+	 * Reads a backend map and reports it if it was slow.
+	 */
+	static Object get(ConfigMap m, String key) {
+		ConfigTracer t = current;
+		if (t == null) return m.get(key);
+		Object context = t.getStarted(m, key);
+		long start = System.nanoTime();
+		try {
+			return m.get(key);
+		}
+		finally {
+			long nanos = System.nanoTime() - start;
+			if (nanos >= t.getSlowGetThresholdNanos()) {
+				t.slowGet(context, m, key, nanos);
+			}
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package org.configfacade;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import com.google.common.base.Converter;
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.net.HostAndPort;
+
+/**
+ * Converters for property types beyond {@link Config.Type}, used by
+ * {@link Config#getProperty(String, Class)} and by bound interfaces.
+ * <p>
+ * Enums, {@link URI} and {@link InetSocketAddress} (as an unresolved <code>host:port</code>)
+ * are converted out of the box. Register a parser for other value types once, before the
+ * type is first looked up, which binding an interface with a property of the type does.
+ * Lookups are cached per class and the registry holds its classes weakly.
+ */
+public final class Converters {
+
+	private static final ClassValue<Registration> registrations = new ClassValue<Registration>() {
+		@Override
+		protected Registration computeValue(Class<?> c) {
+			return new Registration(c);
+		}
+	};
+
+	static {
+		register(URI.class, new Function<String, URI>() {
+			@Override
+			public URI apply(String input) {
+				return URI.create(input.trim());
+			}
+		});
+		register(InetSocketAddress.class, new Function<String, InetSocketAddress>() {
+			@Override
+			public InetSocketAddress apply(String input) {
+				HostAndPort hp = HostAndPort.fromString(input.trim());
+				checkArgument(hp.hasPort(), "Address has no port: '%s'", input);
+				return InetSocketAddress.createUnresolved(hp.getHostText(), hp.getPort());
+			}
+		});
+	}
+
+	private Converters() {
+	}
+
+	/**
+	 * The parser should throw an {@link IllegalArgumentException} for values it does not accept.
+	 * Registering a class again replaces its parser until the class is first looked up.
+	 * 
+	 * @throws IllegalStateException if the class has already been looked up, since bound
+	 *             interfaces cache what they resolved
+	 */
+	public static <T> void register(Class<T> type, Function<String, ? extends T> parser) {
+		checkNotNull(type);
+		checkNotNull(parser);
+		checkArgument(Config.Type.findPropertyType(type) == null, "Is a built-in type: %s", type);
+		registrations.get(type).register(parser);
+	}
+
+	/*
+	 * Null if there is none. Fixes the converter of the class.
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> Converter<String, T> find(Class<T> type) {
+		return (Converter<String, T>) registrations.get(type).use();
+	}
+
+	private static <T> Converter<String, T> converter(Function<String, T> f) {
+		return Converter.from(f, Functions.toStringFunction());
+	}
+
+	/*
+	 * Held by the class itself through the class value, so it does not keep the class or its
+	 * loader reachable.
+	 */
+	private static final class Registration {
+		private final Class<?> type;
+		private Function<String, ?> parser;
+		private Converter<String, ?> converter;
+		// Written after the converter
+		private volatile boolean used;
+
+		Registration(Class<?> type) {
+			this.type = type;
+		}
+
+		synchronized void register(Function<String, ?> parser) {
+			checkState(! used, "Converter must be registered before the type is first used: %s", type);
+			this.parser = parser;
+		}
+
+		Converter<String, ?> use() {
+			if (used) return converter;
+			synchronized (this) {
+				if (! used) {
+					Function<String, ?> f = parser;
+					if (f == null && type.isEnum()) f = enumParser(type);
+					converter = f == null ? null : converter(f);
+					used = true;
+				}
+				return converter;
+			}
+		}
+	}
+
+	private static Function<String, Enum<?>> enumParser(final Class<?> c) {
+		return new Function<String, Enum<?>>() {
+			@SuppressWarnings({ "unchecked", "rawtypes" })
+			@Override
+			public Enum<?> apply(String input) {
+				return Enum.valueOf((Class) c, input.trim());
+			}
+		};
+	}
+}
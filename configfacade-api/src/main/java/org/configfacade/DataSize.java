@@ -0,0 +1,89 @@
+package org.configfacade;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.primitives.Longs;
+
+/**
+ * A number of bytes read from a config value such as <code>512</code>, <code>64k</code> or <code>2 GB</code>.
+ * <p>
+ * The units are powers of 1024 and case insensitive: <code>b</code>, <code>k</code>, <code>m</code>,
+ * <code>g</code> and <code>t</code>, optionally followed by <code>b</code> or <code>ib</code>.
+ * A number without a unit is in bytes.
+ */
+public final class DataSize implements Comparable<DataSize> {
+
+	private static final String UNITS = "bkmgt";
+
+	private final long bytes;
+
+	private DataSize(long bytes) {
+		this.bytes = bytes;
+	}
+
+	public static DataSize ofBytes(long bytes) {
+		checkArgument(bytes >= 0, "Size should not be negative: %s", bytes);
+		return new DataSize(bytes);
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the value is not a size
+	 */
+	public static DataSize parse(String s) throws IllegalArgumentException {
+		DataSize d = tryParse(s);
+		checkArgument(d != null, "Not a data size: '%s'", s);
+		return d;
+	}
+
+	/**
+	 * @return null if the value is not a size or does not fit in a long
+	 */
+	public static DataSize tryParse(String s) {
+		String t = s.trim();
+		int i = Duration.unitStart(t);
+		Long amount = i == 0 ? null : Longs.tryParse(t.substring(0, i));
+		if (amount == null) return null;
+		String unit = t.substring(i).trim().toLowerCase();
+		int shift = 0;
+		if (! unit.isEmpty()) {
+			int u = UNITS.indexOf(unit.charAt(0));
+			String rest = unit.substring(1);
+			if (u < 0) return null;
+			if (! (rest.isEmpty() || (u > 0 && (rest.equals("b") || rest.equals("ib"))))) return null;
+			shift = 10 * u;
+		}
+		if (amount > (Long.MAX_VALUE >> shift)) return null;
+		return new DataSize(amount << shift);
+	}
+
+	public long toBytes() {
+		return bytes;
+	}
+
+	@Override
+	public int compareTo(DataSize o) {
+		return Longs.compare(bytes, o.bytes);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof DataSize && ((DataSize) obj).bytes == bytes;
+	}
+
+	@Override
+	public int hashCode() {
+		return Longs.hashCode(bytes);
+	}
+
+	/**
+	 * In the largest unit that represents the size exactly, so it parses back to an equal size.
+	 */
+	@Override
+	public String toString() {
+		for (int u = UNITS.length() - 1; u > 0; u--) {
+			int shift = 10 * u;
+			if (bytes != 0 && (bytes & ((1L << shift) - 1)) == 0) return (bytes >> shift) + UNITS.substring(u, u + 1);
+		}
+		return bytes + "b";
+	}
+}
@@ -0,0 +1,117 @@
+package org.configfacade;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.primitives.Longs;
+
+/**
+ * A length of time read from a config value such as <code>30s</code> or <code>250 ms</code>.
+ * <p>
+ * The units are <code>ns</code>, <code>us</code>, <code>ms</code>, <code>s</code>, <code>m</code>,
+ * <code>h</code> and <code>d</code>. A number without a unit is in milliseconds.
+ */
+public final class Duration implements Comparable<Duration> {
+
+	private static final String[] UNITS = {"ns", "us", "ms", "s", "m", "h", "d"};
+	private static final TimeUnit[] TIME_UNITS = {TimeUnit.NANOSECONDS, TimeUnit.MICROSECONDS,
+		TimeUnit.MILLISECONDS, TimeUnit.SECONDS, TimeUnit.MINUTES, TimeUnit.HOURS, TimeUnit.DAYS};
+
+	private final long nanos;
+
+	private Duration(long nanos) {
+		this.nanos = nanos;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the duration is negative or does not fit in a long of nanoseconds
+	 */
+	public static Duration of(long amount, TimeUnit unit) {
+		checkArgument(amount >= 0, "Duration should not be negative: %s", amount);
+		Duration d = tryOf(amount, checkNotNull(unit));
+		checkArgument(d != null, "Duration is too long: %s %s", amount, unit);
+		return d;
+	}
+
+	/*
+	 * Null instead of the saturated value of TimeUnit.toNanos.
+	 */
+	private static Duration tryOf(long amount, TimeUnit unit) {
+		if (amount > Long.MAX_VALUE / unit.toNanos(1)) return null;
+		return new Duration(unit.toNanos(amount));
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the value is not a duration
+	 */
+	public static Duration parse(String s) throws IllegalArgumentException {
+		Duration d = tryParse(s);
+		checkArgument(d != null, "Not a duration: '%s'", s);
+		return d;
+	}
+
+	/**
+	 * @return null if the value is not a duration or does not fit in a long of nanoseconds
+	 */
+	public static Duration tryParse(String s) {
+		String t = s.trim();
+		int i = unitStart(t);
+		Long amount = i == 0 ? null : Longs.tryParse(t.substring(0, i));
+		if (amount == null || amount < 0) return null;
+		String unit = t.substring(i).trim();
+		if (unit.isEmpty()) return tryOf(amount, TimeUnit.MILLISECONDS);
+		for (int u = 0; u < UNITS.length; u++) {
+			if (UNITS[u].equals(unit)) return tryOf(amount, TIME_UNITS[u]);
+		}
+		return null;
+	}
+
+	static int unitStart(String s) {
+		int i = 0;
+		while (i < s.length() && Character.isDigit(s.charAt(i))) {
+			i++;
+		}
+		return i;
+	}
+
+	public long to(TimeUnit unit) {
+		return unit.convert(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	public long toNanos() {
+		return nanos;
+	}
+
+	public long toMillis() {
+		return to(TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public int compareTo(Duration o) {
+		return Longs.compare(nanos, o.nanos);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof Duration && ((Duration) obj).nanos == nanos;
+	}
+
+	@Override
+	public int hashCode() {
+		return Longs.hashCode(nanos);
+	}
+
+	/**
+	 * In the largest unit that represents the duration exactly, so it parses back to an equal duration.
+	 */
+	@Override
+	public String toString() {
+		for (int u = TIME_UNITS.length - 1; u > 0; u--) {
+			long unit = TIME_UNITS[u].toNanos(1);
+			if (nanos % unit == 0) return nanos / unit + UNITS[u];
+		}
+		return nanos + UNITS[0];
+	}
+}
@@ -0,0 +1,104 @@
+package org.configfacade;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/*
+ * Environment variables indexed once under a relaxed form of their names.
+ *
+ * A name is lower cased and '_', '-' and '.' all separate segments, so DB_HOST, db-host and
+ * db.host are the same entry. The index holds both the dotted form and the original name, which
+ * makes a lookup by either a single probe. Other spellings are normalized before a second probe.
+ * If two variables have the same dotted form the one already spelled that way wins, otherwise
+ * the first name in sort order.
+ */
+final class EnvironmentConfigMap implements ConfigMap {
+
+	private final Map<String, String> index;
+	private final List<String> keys;
+
+	private EnvironmentConfigMap(Map<String, String> index, List<String> keys) {
+		this.index = index;
+		this.keys = keys;
+	}
+
+	static EnvironmentConfigMap copyOf(Map<String, String> env) {
+		SortedMap<String, String> sorted = Maps.newTreeMap();
+		for (Map.Entry<String, String> e : env.entrySet()) {
+			if (e.getKey() != null && e.getValue() != null) sorted.put(e.getKey(), e.getValue());
+		}
+		Map<String, String> dotted = Maps.newLinkedHashMap();
+		for (Map.Entry<String, String> e : sorted.entrySet()) {
+			if (isNormal(e.getKey())) dotted.put(e.getKey(), e.getValue());
+		}
+		for (Map.Entry<String, String> e : sorted.entrySet()) {
+			String k = normalize(e.getKey());
+			if (! k.isEmpty() && ! dotted.containsKey(k)) dotted.put(k, e.getValue());
+		}
+		Map<String, String> index = Maps.newHashMapWithExpectedSize(dotted.size() + sorted.size());
+		index.putAll(sorted);
+		index.putAll(dotted);
+		return new EnvironmentConfigMap(ImmutableMap.copyOf(index), ImmutableList.copyOf(dotted.keySet()));
+	}
+
+	/*
+	 * Whether the name already is lower case segments separated by single dots.
+	 */
+	static boolean isNormal(String name) {
+		if (name.isEmpty()) return false;
+		char previous = '.';
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c == '_' || c == '-' || Character.isUpperCase(c)) return false;
+			if (c == '.' && previous == '.') return false;
+			previous = c;
+		}
+		return previous != '.';
+	}
+
+	static String normalize(String name) {
+		StringBuilder sb = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c == '_' || c == '-' || c == '.') {
+				if (sb.length() > 0 && sb.charAt(sb.length() - 1) != '.') sb.append('.');
+			}
+			else {
+				sb.append(c);
+			}
+		}
+		if (sb.length() > 0 && sb.charAt(sb.length() - 1) == '.') sb.setLength(sb.length() - 1);
+		return sb.toString().toLowerCase(Locale.ROOT);
+	}
+
+	@Override
+	public Object get(String key) {
+		String v = index.get(key);
+		if (v != null || isNormal(key)) return v;
+		return index.get(normalize(key));
+	}
+
+	@Override
+	public boolean containsKey(String key) {
+		return get(key) != null;
+	}
+
+	/*
+	 * The dotted forms only.
+	 */
+	@Override
+	public Iterable<String> getRawKeys() {
+		return keys;
+	}
+
+	@Override
+	public String toString() {
+		return "EnvironmentConfigMap [keys=" + keys.size() + "]";
+	}
+}
@@ -0,0 +1,400 @@
+package org.configfacade;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Iterator;
+import java.util.Map;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Maps;
+
+/*
+ * An immutable hash array mapped trie of keys to values.
+ *
+ * Each level consumes 5 bits of the key hash and stores only its present slots, indexed by
+ * the bit count of a 32 bit bitmap. Keys with equal hashes share a collision node. A patch copies
+ * only the nodes on the paths of the changed keys, at most 7 per key, and shares everything else
+ * with the map it was applied to, so both stay readable without locks.
+ */
+final class HashTrieConfigMap implements ConfigMap {
+
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+	// 7 bitmap levels and a collision node
+	private static final int MAX_DEPTH = 8;
+
+	private static final HashTrieConfigMap EMPTY = new HashTrieConfigMap(null, 0);
+
+	// Null if empty
+	private final Node root;
+	private final int size;
+
+	private HashTrieConfigMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	static HashTrieConfigMap empty() {
+		return EMPTY;
+	}
+
+	static HashTrieConfigMap copyOf(ConfigMap m) {
+		if (m instanceof HashTrieConfigMap) return (HashTrieConfigMap) m;
+		Node root = null;
+		int[] size = new int[1];
+		for (String k : m.getRawKeys()) {
+			Object v = m.get(k);
+			if (v != null) root = put(root, new Leaf(k, hash(k), v), size);
+		}
+		return new HashTrieConfigMap(root, size[0]);
+	}
+
+	/*
+	 * A null value removes the key. Returns this map if the patch changes nothing.
+	 */
+	HashTrieConfigMap with(Map<String, ? extends Object> patch) {
+		Node r = root;
+		int[] size = { this.size };
+		for (Map.Entry<String, ? extends Object> e : patch.entrySet()) {
+			String k = checkNotNull(e.getKey(), "Patch has a null key");
+			int h = hash(k);
+			if (e.getValue() == null) {
+				if (r != null) r = r.remove(h, k, 0, size);
+			}
+			else {
+				r = put(r, new Leaf(k, h, e.getValue()), size);
+			}
+		}
+		return r == root ? this : new HashTrieConfigMap(r, size[0]);
+	}
+
+	private static Node put(Node root, Leaf leaf, int[] size) {
+		if (root == null) {
+			size[0]++;
+			return new BitmapNode(bit(leaf.hash, 0), new Object[] { leaf });
+		}
+		return root.put(leaf, 0, size);
+	}
+
+	private static int hash(String key) {
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private static int bit(int hash, int shift) {
+		return 1 << ((hash >>> shift) & MASK);
+	}
+
+	private static int hash(Object slot) {
+		return slot instanceof Leaf ? ((Leaf) slot).hash : ((CollisionNode) slot).hash;
+	}
+
+	/*
+	 * A node holding two slots whose hashes differ, nested as deep as their hashes agree.
+	 * Either slot is a leaf or a collision node.
+	 */
+	private static Node pair(Object a, Object b, int shift) {
+		int ha = hash(a);
+		int hb = hash(b);
+		int ba = bit(ha, shift);
+		int bb = bit(hb, shift);
+		if (ba == bb) return new BitmapNode(ba, new Object[] { pair(a, b, shift + BITS) });
+		boolean ordered = ((ha >>> shift) & MASK) < ((hb >>> shift) & MASK);
+		return new BitmapNode(ba | bb, ordered ? new Object[] { a, b } : new Object[] { b, a });
+	}
+
+	/*
+	 * Skips the subtrees both maps share, so a patch is counted in time proportional to its size.
+	 */
+	static int changedKeys(HashTrieConfigMap before, HashTrieConfigMap after) {
+		return diff(before.root, after.root);
+	}
+
+	private static int diff(Object a, Object b) {
+		if (a == b) return 0;
+		if (a instanceof BitmapNode && b instanceof BitmapNode) {
+			BitmapNode x = (BitmapNode) a;
+			BitmapNode y = (BitmapNode) b;
+			int changed = 0;
+			int bits = x.bitmap | y.bitmap;
+			while (bits != 0) {
+				int bit = Integer.lowestOneBit(bits);
+				bits &= ~bit;
+				Object sx = (x.bitmap & bit) == 0 ? null : x.slots[x.index(bit)];
+				Object sy = (y.bitmap & bit) == 0 ? null : y.slots[y.index(bit)];
+				changed += diff(sx, sy);
+			}
+			return changed;
+		}
+		// Different shapes, only small subtrees get here once the tries are shared
+		Map<String, Object> x = entries(a, Maps.<String, Object>newHashMap());
+		Map<String, Object> y = entries(b, Maps.<String, Object>newHashMap());
+		int changed = 0;
+		for (Map.Entry<String, Object> e : x.entrySet()) {
+			if (! e.getValue().equals(y.get(e.getKey()))) changed++;
+		}
+		for (String k : y.keySet()) {
+			if (! x.containsKey(k)) changed++;
+		}
+		return changed;
+	}
+
+	private static Map<String, Object> entries(Object slot, Map<String, Object> m) {
+		if (slot instanceof Leaf) {
+			Leaf l = (Leaf) slot;
+			m.put(l.key, l.value);
+		}
+		else if (slot != null) {
+			for (Object o : ((Node) slot).slots) {
+				entries(o, m);
+			}
+		}
+		return m;
+	}
+
+	@Override
+	public Object get(String key) {
+		if (root == null) return null;
+		int h = hash(key);
+		Node n = root;
+		int shift = 0;
+		while (true) {
+			if (n instanceof CollisionNode) return ((CollisionNode) n).get(h, key);
+			BitmapNode b = (BitmapNode) n;
+			int bit = bit(h, shift);
+			if ((b.bitmap & bit) == 0) return null;
+			Object o = b.slots[b.index(bit)];
+			if (o instanceof Leaf) {
+				Leaf l = (Leaf) o;
+				return l.hash == h && l.key.equals(key) ? l.value : null;
+			}
+			n = (Node) o;
+			shift += BITS;
+		}
+	}
+
+	@Override
+	public boolean containsKey(String key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public Iterable<String> getRawKeys() {
+		return new Iterable<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				return new KeyIterator(root);
+			}
+		};
+	}
+
+	int size() {
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return "HashTrieConfigMap [size=" + size + "]";
+	}
+
+	/*
+	 * Depth first without recursion over the slot arrays.
+	 */
+	private static final class KeyIterator extends AbstractIterator<String> {
+		private final Object[][] slots = new Object[MAX_DEPTH][];
+		private final int[] positions = new int[MAX_DEPTH];
+		private int depth;
+
+		KeyIterator(Node root) {
+			if (root == null) {
+				depth = -1;
+			}
+			else {
+				slots[0] = root.slots;
+			}
+		}
+
+		@Override
+		protected String computeNext() {
+			while (depth >= 0) {
+				Object[] s = slots[depth];
+				if (positions[depth] == s.length) {
+					depth--;
+					continue;
+				}
+				Object o = s[positions[depth]++];
+				if (o instanceof Leaf) return ((Leaf) o).key;
+				depth++;
+				slots[depth] = ((Node) o).slots;
+				positions[depth] = 0;
+			}
+			return endOfData();
+		}
+	}
+
+	private static final class Leaf {
+		final String key;
+		final int hash;
+		final Object value;
+
+		Leaf(String key, int hash, Object value) {
+			this.key = key;
+			this.hash = hash;
+			this.value = value;
+		}
+	}
+
+	/*
+	 * Nodes are never mutated once built. Updates return the same node if nothing changed,
+	 * a copy on the path to the change, or null if the node became empty.
+	 * The size counts added and removed keys.
+	 */
+	private abstract static class Node {
+		// Leaves and nodes
+		final Object[] slots;
+
+		Node(Object[] slots) {
+			this.slots = slots;
+		}
+
+		abstract Node put(Leaf leaf, int shift, int[] size);
+
+		abstract Node remove(int hash, String key, int shift, int[] size);
+	}
+
+	private static final class BitmapNode extends Node {
+		final int bitmap;
+
+		BitmapNode(int bitmap, Object[] slots) {
+			super(slots);
+			this.bitmap = bitmap;
+		}
+
+		int index(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+
+		@Override
+		Node put(Leaf leaf, int shift, int[] size) {
+			int bit = bit(leaf.hash, shift);
+			int i = index(bit);
+			if ((bitmap & bit) == 0) {
+				size[0]++;
+				Object[] s = new Object[slots.length + 1];
+				System.arraycopy(slots, 0, s, 0, i);
+				s[i] = leaf;
+				System.arraycopy(slots, i, s, i + 1, slots.length - i);
+				return new BitmapNode(bitmap | bit, s);
+			}
+			Object o = slots[i];
+			Object replacement;
+			if (o instanceof Leaf) {
+				Leaf l = (Leaf) o;
+				if (l.hash == leaf.hash && l.key.equals(leaf.key)) {
+					if (Objects.equal(l.value, leaf.value)) return this;
+					replacement = leaf;
+				}
+				else {
+					size[0]++;
+					replacement = l.hash == leaf.hash
+							? new CollisionNode(l.hash, new Object[] { l, leaf })
+							: pair(l, leaf, shift + BITS);
+				}
+			}
+			else {
+				Node n = (Node) o;
+				replacement = n.put(leaf, shift + BITS, size);
+				if (replacement == n) return this;
+			}
+			Object[] s = slots.clone();
+			s[i] = replacement;
+			return new BitmapNode(bitmap, s);
+		}
+
+		@Override
+		Node remove(int hash, String key, int shift, int[] size) {
+			int bit = bit(hash, shift);
+			if ((bitmap & bit) == 0) return this;
+			int i = index(bit);
+			Object o = slots[i];
+			if (o instanceof Leaf) {
+				Leaf l = (Leaf) o;
+				if (l.hash != hash || ! l.key.equals(key)) return this;
+				size[0]--;
+				return without(bit, i);
+			}
+			Node n = (Node) o;
+			Node replacement = n.remove(hash, key, shift + BITS, size);
+			if (replacement == n) return this;
+			if (replacement == null) return without(bit, i);
+			Object[] s = slots.clone();
+			s[i] = replacement;
+			return new BitmapNode(bitmap, s);
+		}
+
+		private Node without(int bit, int i) {
+			if (slots.length == 1) return null;
+			Object[] s = new Object[slots.length - 1];
+			System.arraycopy(slots, 0, s, 0, i);
+			System.arraycopy(slots, i + 1, s, i, s.length - i);
+			return new BitmapNode(bitmap & ~bit, s);
+		}
+	}
+
+	private static final class CollisionNode extends Node {
+		final int hash;
+
+		CollisionNode(int hash, Object[] leaves) {
+			super(leaves);
+			this.hash = hash;
+		}
+
+		Object get(int hash, String key) {
+			int i = find(hash, key);
+			return i < 0 ? null : ((Leaf) slots[i]).value;
+		}
+
+		private int find(int hash, String key) {
+			if (hash != this.hash) return -1;
+			for (int i = 0; i < slots.length; i++) {
+				if (((Leaf) slots[i]).key.equals(key)) return i;
+			}
+			return -1;
+		}
+
+		@Override
+		Node put(Leaf leaf, int shift, int[] size) {
+			if (leaf.hash != hash) {
+				size[0]++;
+				return pair(this, leaf, shift);
+			}
+			int i = find(leaf.hash, leaf.key);
+			if (i >= 0 && Objects.equal(((Leaf) slots[i]).value, leaf.value)) return this;
+			Object[] s;
+			if (i >= 0) {
+				s = slots.clone();
+				s[i] = leaf;
+			}
+			else {
+				size[0]++;
+				s = new Object[slots.length + 1];
+				System.arraycopy(slots, 0, s, 0, slots.length);
+				s[slots.length] = leaf;
+			}
+			return new CollisionNode(hash, s);
+		}
+
+		@Override
+		Node remove(int hash, String key, int shift, int[] size) {
+			int i = find(hash, key);
+			if (i < 0) return this;
+			size[0]--;
+			if (slots.length == 1) return null;
+			Object[] s = new Object[slots.length - 1];
+			System.arraycopy(slots, 0, s, 0, i);
+			System.arraycopy(slots, i + 1, s, i, s.length - i);
+			return new CollisionNode(hash, s);
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package org.configfacade;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+import org.configfacade.Config.Property;
+import org.configfacade.Config.Type;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+
+/**
+ * The properties and bound interfaces a process actually uses, recorded so that the next start
+ * can load them on a background thread before traffic arrives.
+ * <p>
+ * Start recording with {@link #record()}, {@link #write(File)} the result on shutdown or after
+ * warm-up, and call {@link #prewarm(Config)} with what {@link #read(File)} returns on the next boot.
+ * Paths are recorded relative to the root config.
+ */
+public final class HotKeys {
+
+	private static final String BIND = "bind";
+	private static final Splitter FIELDS = Splitter.on('\t').limit(2);
+
+	private static volatile HotKeys recording;
+
+	private final ConcurrentMap<String, Type> properties;
+	private final Set<String> bound;
+
+	private HotKeys(ConcurrentMap<String, Type> properties, Set<String> bound) {
+		this.properties = properties;
+		this.bound = bound;
+	}
+
+	/**
+	 * Starts recording into a new manifest, replacing the one currently recording if any.
+	 */
+	public static synchronized HotKeys record() {
+		HotKeys h = new HotKeys(Maps.<String, Type>newConcurrentMap(), Sets.<String>newConcurrentHashSet());
+		recording = h;
+		return h;
+	}
+
+	public void stop() {
+		synchronized (HotKeys.class) {
+			if (recording == this) recording = null;
+		}
+	}
+
+	static void property(String path, Type type) {
+		HotKeys h = recording;
+		if (h != null) h.properties.putIfAbsent(path, type);
+	}
+
+	static void bound(Class<?> c) {
+		HotKeys h = recording;
+		if (h != null) h.bound.add(c.getName());
+	}
+
+	public Map<String, Type> getProperties() {
+		return ImmutableMap.copyOf(properties);
+	}
+
+	public Set<String> getBound() {
+		return ImmutableSet.copyOf(bound);
+	}
+
+	/**
+	 * Writes the manifest next to the file first and then renames it over the file,
+	 * so a crash never leaves a partial manifest behind.
+	 */
+	public void write(File file) throws IOException {
+		Path target = file.toPath().toAbsolutePath();
+		Path tmp = Files.createTempFile(target.getParent(), file.getName(), ".tmp");
+		try {
+			try (Writer w = Files.newBufferedWriter(tmp, Charsets.UTF_8)) {
+				for (Map.Entry<String, Type> e : properties.entrySet()) {
+					w.write(e.getValue().name() + "\t" + e.getKey() + "\n");
+				}
+				for (String c : bound) {
+					w.write(BIND + "\t" + c + "\n");
+				}
+			}
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Lines this version does not understand are skipped so an older manifest never fails a boot.
+	 */
+	public static HotKeys read(File file) throws IOException {
+		ConcurrentMap<String, Type> properties = Maps.newConcurrentMap();
+		Set<String> bound = Sets.newConcurrentHashSet();
+		for (String line : Files.readAllLines(file.toPath(), Charsets.UTF_8)) {
+			if (line.isEmpty() || line.startsWith("#")) continue;
+			String[] fields = Iterables.toArray(FIELDS.split(line), String.class);
+			if (fields.length != 2) continue;
+			if (BIND.equals(fields[0])) {
+				bound.add(fields[1]);
+				continue;
+			}
+			Type type = type(fields[0]);
+			if (type != null) properties.put(fields[1], type);
+		}
+		return new HotKeys(properties, bound);
+	}
+
+	private static Type type(String name) {
+		for (Type t : Type.values()) {
+			if (t.name().equals(name)) return t;
+		}
+		return null;
+	}
+
+	/**
+	 * On the shared daemon pool, resolves the property methods of the bound interfaces into the cache
+	 * their proxies read and generates the proxy classes. Then reads every property once, which loads
+	 * lazy subtrees and fills caching maps such as {@link ConfigFactory#cached(ConfigMap, String)}.
+	 * Converted values are not kept, a property created later converts on its own first read.
+	 * Interfaces that are no longer on the class path and values that do not convert are skipped.
+	 *
+	 * @return the number of properties that were present.
+	 */
+	public ListenableFuture<Integer> prewarm(Config config) {
+		return prewarm(config, TimerWheel.sharedExecutor());
+	}
+
+	public ListenableFuture<Integer> prewarm(final Config config, Executor executor) {
+		checkNotNull(config);
+		ListenableFutureTask<Integer> task = ListenableFutureTask.create(new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				return warm(config);
+			}
+		});
+		executor.execute(task);
+		return task;
+	}
+
+	private int warm(Config config) {
+		for (String name : bound) {
+			Class<?> c;
+			try {
+				c = Class.forName(name, true, HotKeys.class.getClassLoader());
+			}
+			catch (ClassNotFoundException e) {
+				continue;
+			}
+			if (! c.isInterface()) continue;
+			ConfigFactory.resolveMethods(c);
+			ConfigFactory.bind(config, c);
+		}
+		int present = 0;
+		for (Map.Entry<String, Type> e : properties.entrySet()) {
+			Property<?> p = config.getProperty(e.getKey(), e.getValue());
+			try {
+				if (p.isPresent()) present++;
+			}
+			catch (RuntimeException ex) {
+				// Fails again on the first real read
+			}
+		}
+		return present;
+	}
+
+	@Override
+	public String toString() {
+		return "HotKeys [properties=" + properties.size() + ", bound=" + bound.size() + "]";
+	}
+}
@@ -0,0 +1,243 @@
+package org.configfacade;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.lang.ref.SoftReference;
+import java.util.List;
+
+import org.configfacade.ConfigFactory.SubtreeLoader;
+import org.configfacade.ConfigMap.ReplaceableConfigMap;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/*
+ * One subtree of a lazily loaded map, mounted as a shard of a namespaced map.
+ *
+ * The subtree is loaded on first access and only softly reachable afterwards so that the
+ * collector can evict cold subtrees under memory pressure. Its keys are kept in a manifest,
+ * taken from the loader or else from the last load, so enumerating the whole map does not
+ * load subtrees. A snapshot taken while the subtree is not loaded defers the load to its first
+ * read and reserves the generation of that load.
+ */
+final class LazySubtreeConfigMap implements ReplaceableConfigMap {
+
+	private final SubtreeLoader loader;
+	private final String prefix;
+	private final CallbackExecutionList<ConfigMap> eventBus = new CallbackExecutionList<ConfigMap>();
+	private volatile Loaded loaded;
+	// The relative keys listed by the loader or of the last load, null until either
+	private volatile List<String> manifest;
+	// A replacement cannot be loaded again so it is held strongly
+	private volatile ConfigMap replaced;
+	private long generation = -1;
+	// The snapshot waiting for the next load, if any. Guarded by this.
+	private Deferred pending;
+
+	public LazySubtreeConfigMap(SubtreeLoader loader, String prefix) {
+		super();
+		this.loader = checkNotNull(loader);
+		this.prefix = checkNotNull(prefix);
+	}
+
+	/*
+	 * Loading again after an eviction is a new generation because the source may have changed.
+	 */
+	private Snapshot current() {
+		Loaded l = loaded;
+		Snapshot s = l == null ? null : l.get();
+		if (s != null) return s;
+		return load();
+	}
+
+	private synchronized Snapshot load() {
+		Loaded l = loaded;
+		Snapshot s = l == null ? null : l.get();
+		if (s != null) return s;
+		ConfigMap m = replaced;
+		if (m == null) {
+			m = checkNotNull(loader.load(prefix), "Loader returned null for: %s", prefix);
+			manifest = ImmutableList.copyOf(m.getRawKeys());
+		}
+		if (pending != null) {
+			s = new Snapshot(m, pending.generation);
+			pending.snapshot = s;
+			pending = null;
+		}
+		else {
+			s = new Snapshot(m, ++generation);
+		}
+		loaded = new Loaded(s);
+		return s;
+	}
+
+	@Override
+	public Object get(String key) {
+		return current().map.get(key);
+	}
+
+	@Override
+	public boolean containsKey(String key) {
+		return current().map.containsKey(key);
+	}
+
+	@Override
+	public Iterable<String> getRawKeys() {
+		if (replaced == null) {
+			List<String> keys = manifest;
+			if (keys != null) return keys;
+			Iterable<String> listed = loader.getKeys(prefix);
+			if (listed != null) {
+				keys = ImmutableList.copyOf(listed);
+				manifest = keys;
+				return keys;
+			}
+		}
+		return current().map.getRawKeys();
+	}
+
+	boolean isLoaded() {
+		Loaded l = loaded;
+		return l != null && l.get() != null;
+	}
+
+	@Override
+	public void reload() {
+		synchronized (this) {
+			loaded = null;
+		}
+		eventBus.onSuccess(this);
+	}
+
+	@Override
+	public void replace(ConfigMap m) {
+		checkNotNull(m);
+		synchronized (this) {
+			replaced = m;
+			loaded = null;
+		}
+		eventBus.onSuccess(m);
+	}
+
+	@Override
+	public void addListener(FutureCallback<ConfigMap> listener) {
+		eventBus.add(listener, MoreExecutors.sameThreadExecutor());
+	}
+
+	@Override
+	public void addWeakListener(FutureCallback<ConfigMap> listener) {
+		eventBus.addWeak(listener, MoreExecutors.sameThreadExecutor());
+	}
+
+	@Override
+	public ConfigSnapshot snapshot() {
+		Loaded l = loaded;
+		Snapshot s = l == null ? null : l.get();
+		return s != null ? s : deferred();
+	}
+
+	private synchronized ConfigSnapshot deferred() {
+		Loaded l = loaded;
+		Snapshot s = l == null ? null : l.get();
+		if (s != null) return s;
+		// A replacement is held strongly, so there is nothing to defer
+		if (replaced != null) return load();
+		if (pending == null) pending = new Deferred(++generation);
+		return pending;
+	}
+
+	@Override
+	public String toString() {
+		return "LazySubtreeConfigMap [prefix=" + prefix + ", loaded=" + isLoaded() + "]";
+	}
+
+	private static final class Loaded extends SoftReference<Snapshot> {
+		Loaded(Snapshot s) {
+			super(s);
+		}
+	}
+
+	/*
+	 * Stands for the next load. Its keys come from the manifest like those of the map.
+	 */
+	private final class Deferred implements ConfigSnapshot {
+		private final long generation;
+		// Set by the load that takes the generation
+		private volatile Snapshot snapshot;
+
+		Deferred(long generation) {
+			this.generation = generation;
+		}
+
+		private Snapshot resolve() {
+			Snapshot s = snapshot;
+			if (s != null) return s;
+			synchronized (LazySubtreeConfigMap.this) {
+				if (snapshot == null) load();
+				return snapshot;
+			}
+		}
+
+		@Override
+		public Object get(String key) {
+			return resolve().map.get(key);
+		}
+
+		@Override
+		public boolean containsKey(String key) {
+			return resolve().map.containsKey(key);
+		}
+
+		@Override
+		public Iterable<String> getRawKeys() {
+			Snapshot s = snapshot;
+			return s != null ? s.getRawKeys() : LazySubtreeConfigMap.this.getRawKeys();
+		}
+
+		@Override
+		public long getGeneration() {
+			return generation;
+		}
+
+		@Override
+		public String toString() {
+			return "Deferred [generation=" + generation + ", loaded=" + (snapshot != null) + "]";
+		}
+	}
+
+	private static final class Snapshot implements ConfigSnapshot {
+		private final ConfigMap map;
+		private final long generation;
+
+		Snapshot(ConfigMap map, long generation) {
+			this.map = map;
+			this.generation = generation;
+		}
+
+		@Override
+		public Object get(String key) {
+			return map.get(key);
+		}
+
+		@Override
+		public boolean containsKey(String key) {
+			return map.containsKey(key);
+		}
+
+		@Override
+		public Iterable<String> getRawKeys() {
+			return map.getRawKeys();
+		}
+
+		@Override
+		public long getGeneration() {
+			return generation;
+		}
+
+		@Override
+		public String toString() {
+			return "Snapshot [generation=" + generation + "]";
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package org.configfacade;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import org.configfacade.ConfigMap.LayeredConfigMap;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/*
+ * A shared base with overlays that only hold their overrides.
+ *
+ * The base has a single listener that relays changes to the overlays. An overlay only joins
+ * that relay, weakly, once it has listeners of its own, so an overlay without listeners is just
+ * its overrides and a generation.
+ */
+final class OverlayConfigMap implements LayeredConfigMap, ConfigFactory.Generational {
+
+	private final ReplaceableConfigMap base;
+	private final CallbackExecutionList<ConfigMap> overlays = new CallbackExecutionList<ConfigMap>();
+
+	public OverlayConfigMap(ReplaceableConfigMap base) {
+		super();
+		this.base = checkNotNull(base);
+		base.addListener(overlays);
+	}
+
+	@Override
+	public ReplaceableConfigMap overlay(ConfigMap overrides) {
+		return new Overlay(checkNotNull(overrides));
+	}
+
+	@Override
+	public Object get(String key) {
+		return base.get(key);
+	}
+
+	@Override
+	public Iterable<String> getRawKeys() {
+		return base.getRawKeys();
+	}
+
+	@Override
+	public boolean containsKey(String key) {
+		return base.containsKey(key);
+	}
+
+	@Override
+	public void reload() {
+		base.reload();
+	}
+
+	@Override
+	public void replace(ConfigMap m) {
+		base.replace(m);
+	}
+
+	@Override
+	public void addListener(FutureCallback<ConfigMap> listener) {
+		base.addListener(listener);
+	}
+
+	@Override
+	public void addWeakListener(FutureCallback<ConfigMap> listener) {
+		base.addWeakListener(listener);
+	}
+
+	@Override
+	public ConfigSnapshot snapshot() {
+		return base.snapshot();
+	}
+
+	@Override
+	public long generation() {
+		return ConfigFactory.generationOf(base);
+	}
+
+	@Override
+	public String toString() {
+		return "OverlayConfigMap [base=" + base + "]";
+	}
+
+	private final class Overlay implements ReplaceableConfigMap, ConfigFactory.Generational {
+
+		private volatile Layer layer;
+		// Created with the first listener
+		private CallbackExecutionList<ConfigMap> bus;
+
+		Overlay(ConfigMap overrides) {
+			this.layer = new Layer(overrides, 0L);
+		}
+
+		@Override
+		public Object get(String key) {
+			Object o = layer.overrides.get(key);
+			return o != null ? o : base.get(key);
+		}
+
+		@Override
+		public boolean containsKey(String key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public Iterable<String> getRawKeys() {
+			return rawKeys(layer.overrides, base);
+		}
+
+		@Override
+		public void replace(ConfigMap m) {
+			checkNotNull(m);
+			commit(m);
+			notifyListeners(m);
+		}
+
+		@Override
+		public void reload() {
+			ConfigMap m = layer.overrides;
+			commit(m);
+			notifyListeners(m);
+		}
+
+		private synchronized void commit(ConfigMap m) {
+			layer = new Layer(m, layer.generation + 1);
+		}
+
+		private void notifyListeners(ConfigMap m) {
+			CallbackExecutionList<ConfigMap> b;
+			synchronized (this) {
+				b = bus;
+			}
+			if (b != null) b.onSuccess(m);
+		}
+
+		@Override
+		public void addListener(FutureCallback<ConfigMap> listener) {
+			bus().add(listener, MoreExecutors.sameThreadExecutor());
+		}
+
+		@Override
+		public void addWeakListener(FutureCallback<ConfigMap> listener) {
+			bus().addWeak(listener, MoreExecutors.sameThreadExecutor());
+		}
+
+		/*
+		 * Only this overlay holds its bus so the base forgets the overlay with it.
+		 */
+		private synchronized CallbackExecutionList<ConfigMap> bus() {
+			if (bus == null) {
+				bus = new CallbackExecutionList<ConfigMap>();
+				overlays.addWeak(bus, MoreExecutors.sameThreadExecutor());
+			}
+			return bus;
+		}
+
+		/*
+		 * The generation is the sum of both generations, which only grows.
+		 */
+		@Override
+		public ConfigSnapshot snapshot() {
+			Layer l = layer;
+			ConfigSnapshot s = base.snapshot();
+			return new OverlaySnapshot(l.overrides, s, l.generation + s.getGeneration());
+		}
+
+		@Override
+		public long generation() {
+			return layer.generation + ConfigFactory.generationOf(base);
+		}
+
+		@Override
+		public String toString() {
+			return "Overlay [overrides=" + layer.overrides + ", base=" + base + "]";
+		}
+	}
+
+	private static Iterable<String> rawKeys(final ConfigMap overrides, ConfigMap base) {
+		Iterable<String> inherited = FluentIterable.from(base.getRawKeys()).filter(new Predicate<String>() {
+			@Override
+			public boolean apply(String input) {
+				return overrides.get(input) == null;
+			}
+		});
+		return Iterables.concat(overrides.getRawKeys(), inherited);
+	}
+
+	private static final class Layer {
+		final ConfigMap overrides;
+		final long generation;
+
+		Layer(ConfigMap overrides, long generation) {
+			this.overrides = overrides;
+			this.generation = generation;
+		}
+	}
+
+	private static final class OverlaySnapshot implements ConfigSnapshot {
+		private final ConfigMap overrides;
+		private final ConfigSnapshot base;
+		private final long generation;
+
+		OverlaySnapshot(ConfigMap overrides, ConfigSnapshot base, long generation) {
+			this.overrides = overrides;
+			this.base = base;
+			this.generation = generation;
+		}
+
+		@Override
+		public Object get(String key) {
+			Object o = overrides.get(key);
+			return o != null ? o : base.get(key);
+		}
+
+		@Override
+		public boolean containsKey(String key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public Iterable<String> getRawKeys() {
+			return rawKeys(overrides, base);
+		}
+
+		@Override
+		public long getGeneration() {
+			return generation;
+		}
+
+		@Override
+		public String toString() {
+			return "OverlaySnapshot [generation=" + generation + "]";
+		}
+	}
+}
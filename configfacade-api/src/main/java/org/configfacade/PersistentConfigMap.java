@@ -0,0 +1,306 @@
+package org.configfacade;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.configfacade.ConfigMap.ReplaceableConfigMap;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+
+/*
+ * Keeps the last committed snapshot of a map on local disk so the next start can serve it
+ * before the real source has loaded.
+ *
+ * Commits are written behind on an executor. Commits that arrive while a write is running are
+ * coalesced into one write of the latest snapshot. A write goes to a temp file that is synced
+ * and then renamed over the file, so a crash leaves either the old or the new snapshot.
+ *
+ * The file is a magic number, the entry count, each key and value as length prefixed UTF-8
+ * and a CRC32 of all of it. Values are stored as strings, the same way they are converted.
+ * Lists, sets and maps are joined the way they are split, a value that would not split back into
+ * the same elements is left out of the snapshot. Both a value left out and a failed write are
+ * reported to the installed tracer.
+ */
+final class PersistentConfigMap implements ReplaceableConfigMap, ConfigFactory.Guarded {
+
+	private static final int MAGIC = 0x43464731;
+
+	private final ReplaceableConfigMap map;
+	private final File file;
+	// Null if reload only reloads the wrapped map
+	private final Callable<? extends ConfigMap> source;
+	private final Executor executor;
+	private boolean writing;
+	private boolean dirty;
+
+	private final Runnable writer = new Runnable() {
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+
+	public PersistentConfigMap(ReplaceableConfigMap map, File file, Callable<? extends ConfigMap> source,
+			Executor executor) {
+		super();
+		this.map = checkNotNull(map);
+		File parent = file.getAbsoluteFile().getParentFile();
+		checkArgument(parent != null && parent.isDirectory(), "Directory does not exist: %s", parent);
+		this.file = file;
+		this.source = source;
+		this.executor = checkNotNull(executor);
+		map.addListener(new FutureCallback<ConfigMap>() {
+			@Override
+			public void onSuccess(ConfigMap result) {
+				schedule();
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+			}
+		});
+	}
+
+	/*
+	 * Empty if there is no file or it is damaged, so a start never fails on it.
+	 */
+	static Map<String, String> read(File file) {
+		Map<String, String> m = tryRead(file);
+		return m == null ? ImmutableMap.<String, String>of() : m;
+	}
+
+	/*
+	 * Null if there is no file or it is damaged.
+	 */
+	static Map<String, String> tryRead(File file) {
+		if (! file.isFile()) return null;
+		try (InputStream in = new FileInputStream(file)) {
+			CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(in), new CRC32());
+			DataInputStream data = new DataInputStream(checked);
+			if (data.readInt() != MAGIC) return null;
+			int count = data.readInt();
+			Map<String, String> m = Maps.newLinkedHashMap();
+			long limit = file.length();
+			for (int i = 0; i < count; i++) {
+				String key = readString(data, limit);
+				m.put(key, readString(data, limit));
+			}
+			long crc = checked.getChecksum().getValue();
+			if (data.readLong() != crc) return null;
+			return ImmutableMap.copyOf(m);
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static String readString(DataInputStream in, long limit) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > limit) throw new EOFException();
+		byte[] b = new byte[length];
+		in.readFully(b);
+		return new String(b, Charsets.UTF_8);
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] b = s.getBytes(Charsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	static void write(ConfigMap m, File file) throws IOException {
+		Map<String, String> entries = Maps.newLinkedHashMap();
+		for (String k : m.getRawKeys()) {
+			Object o = m.get(k);
+			if (o == null) continue;
+			try {
+				entries.put(k, encode(k, o));
+			}
+			catch (IllegalArgumentException e) {
+				ConfigTracer t = ConfigTracer.current();
+				if (t != null) t.valueNotPersisted(file, k, e);
+			}
+		}
+		Path target = file.toPath().toAbsolutePath();
+		Path tmp = Files.createTempFile(target.getParent(), file.getName(), ".tmp");
+		try {
+			try (FileOutputStream out = new FileOutputStream(tmp.toFile())) {
+				CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(out), new CRC32());
+				DataOutputStream data = new DataOutputStream(checked);
+				data.writeInt(MAGIC);
+				data.writeInt(entries.size());
+				for (Map.Entry<String, String> e : entries.entrySet()) {
+					writeString(data, e.getKey());
+					writeString(data, e.getValue());
+				}
+				data.writeLong(checked.getChecksum().getValue());
+				data.flush();
+				out.getFD().sync();
+			}
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/*
+	 * Lists and sets as comma separated elements, maps as comma separated key=value entries.
+	 */
+	static String encode(String key, Object value) {
+		if (value instanceof Collection) {
+			StringBuilder sb = new StringBuilder();
+			for (Object e : (Collection<?>) value) {
+				String s = element(key, e);
+				checkArgument(! s.isEmpty(), "Value of %s has an empty element", key);
+				if (sb.length() > 0) sb.append(',');
+				sb.append(s);
+			}
+			return sb.toString();
+		}
+		if (value instanceof Map) {
+			StringBuilder sb = new StringBuilder();
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+				String k = element(key, e.getKey());
+				checkArgument(k.indexOf('=') < 0, "Value of %s has a key with '=': %s", key, k);
+				if (sb.length() > 0) sb.append(',');
+				sb.append(k).append('=').append(element(key, e.getValue()));
+			}
+			return sb.toString();
+		}
+		return value.toString();
+	}
+
+	private static String element(String key, Object e) {
+		String s = String.valueOf(e);
+		checkArgument(s.indexOf(',') < 0 && s.trim().equals(s), "Value of %s has an element that cannot be joined: '%s'",
+				key, s);
+		return s;
+	}
+
+	private void schedule() {
+		synchronized (this) {
+			dirty = true;
+			if (writing) return;
+			writing = true;
+		}
+		try {
+			executor.execute(writer);
+		}
+		catch (RejectedExecutionException e) {
+			drain();
+		}
+	}
+
+	private void drain() {
+		while (true) {
+			synchronized (this) {
+				if (! dirty) {
+					writing = false;
+					return;
+				}
+				dirty = false;
+			}
+			try {
+				write(map.snapshot(), file);
+			}
+			catch (IOException | RuntimeException e) {
+				// The previous file is still intact and the next commit tries again
+				ConfigTracer t = ConfigTracer.current();
+				if (t != null) t.snapshotWriteFailed(file, e);
+			}
+		}
+	}
+
+	@Override
+	public Object get(String key) {
+		return map.get(key);
+	}
+
+	@Override
+	public Iterable<String> getRawKeys() {
+		return map.getRawKeys();
+	}
+
+	@Override
+	public boolean containsKey(String key) {
+		return map.containsKey(key);
+	}
+
+	/*
+	 * Loads the source again. The last known good snapshot stays if the source fails.
+	 */
+	@Override
+	public void reload() {
+		if (source == null) {
+			map.reload();
+			return;
+		}
+		ConfigMap m;
+		try {
+			m = checkNotNull(source.call(), "Source returned null");
+		}
+		catch (RuntimeException e) {
+			throw e;
+		}
+		catch (Exception e) {
+			throw new IllegalStateException("Could not load the config source", e);
+		}
+		map.replace(m);
+	}
+
+	@Override
+	public void replace(ConfigMap m) {
+		map.replace(m);
+	}
+
+	@Override
+	public void guard(ConfigSchema schema) {
+		ConfigFactory.guard(map, schema);
+	}
+
+	@Override
+	public void addListener(FutureCallback<ConfigMap> listener) {
+		map.addListener(listener);
+	}
+
+	@Override
+	public void addWeakListener(FutureCallback<ConfigMap> listener) {
+		map.addWeakListener(listener);
+	}
+
+	@Override
+	public ConfigSnapshot snapshot() {
+		return map.snapshot();
+	}
+
+	@Override
+	public String toString() {
+		return "PersistentConfigMap [file=" + file + ", map=" + map + "]";
+	}
+}
@@ -0,0 +1,154 @@
+package org.configfacade;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/*
+ * Applies reloads and replacements of one map on a single writer.
+ *
+ * Requests that arrive while the writer is busy are collapsed into one: the last replacement
+ * wins and a reload is covered by any commit. Each request completes either when its commit is
+ * visible or once the listeners have been notified as well.
+ */
+final class ReloadQueue {
+
+	interface Target {
+		/*
+		 * Commits the map, or the current map again if null, and returns the new snapshot.
+		 */
+		ConfigSnapshot commit(ConfigMap m);
+
+		void publish(ConfigSnapshot s);
+	}
+
+	private final Target target;
+	private final Executor executor;
+	private boolean pending;
+	private ConfigMap pendingMap;
+	private List<SettableFuture<ConfigSnapshot>> visible = Lists.newArrayList();
+	private List<SettableFuture<ConfigSnapshot>> notified = Lists.newArrayList();
+	private boolean running;
+
+	private final Runnable writer = new Runnable() {
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+
+	ReloadQueue(Target target, Executor executor) {
+		this.target = checkNotNull(target);
+		this.executor = checkNotNull(executor);
+	}
+
+	/*
+	 * A null map reloads.
+	 */
+	ListenableFuture<ConfigSnapshot> submit(ConfigMap m, boolean awaitListeners) {
+		SettableFuture<ConfigSnapshot> f = SettableFuture.create();
+		synchronized (this) {
+			pending = true;
+			if (m != null) pendingMap = m;
+			(awaitListeners ? notified : visible).add(f);
+			if (running) return f;
+			running = true;
+		}
+		try {
+			executor.execute(writer);
+		}
+		catch (RejectedExecutionException e) {
+			drain();
+		}
+		return f;
+	}
+
+	/*
+	 * A failed commit or publish fails its futures with whatever was thrown, errors included,
+	 * and the writer goes on with the next request.
+	 */
+	private void drain() {
+		boolean idle = false;
+		try {
+			while (true) {
+				ConfigMap m;
+				List<SettableFuture<ConfigSnapshot>> v;
+				List<SettableFuture<ConfigSnapshot>> n;
+				synchronized (this) {
+					if (! pending) {
+						running = false;
+						idle = true;
+						return;
+					}
+					m = pendingMap;
+					v = visible;
+					n = notified;
+					pending = false;
+					pendingMap = null;
+					visible = Lists.newArrayList();
+					notified = Lists.newArrayList();
+				}
+				ConfigSnapshot s;
+				try {
+					s = target.commit(m);
+				}
+				catch (Throwable t) {
+					fail(v, t);
+					fail(n, t);
+					continue;
+				}
+				complete(v, s);
+				try {
+					target.publish(s);
+				}
+				catch (Throwable t) {
+					fail(n, t);
+					continue;
+				}
+				complete(n, s);
+			}
+		}
+		finally {
+			if (! idle) abandon();
+		}
+	}
+
+	/*
+	 * Only reached if completing a future threw. Fails the queued requests and frees the writer
+	 * so later requests are applied again.
+	 */
+	private void abandon() {
+		List<SettableFuture<ConfigSnapshot>> v;
+		List<SettableFuture<ConfigSnapshot>> n;
+		synchronized (this) {
+			running = false;
+			pending = false;
+			pendingMap = null;
+			v = visible;
+			n = notified;
+			visible = Lists.newArrayList();
+			notified = Lists.newArrayList();
+		}
+		IllegalStateException e = new IllegalStateException("The writer stopped before the request was applied");
+		fail(v, e);
+		fail(n, e);
+	}
+
+	private static void complete(List<SettableFuture<ConfigSnapshot>> futures, ConfigSnapshot s) {
+		for (SettableFuture<ConfigSnapshot> f : futures) {
+			f.set(s);
+		}
+	}
+
+	private static void fail(List<SettableFuture<ConfigSnapshot>> futures, Throwable t) {
+		for (SettableFuture<ConfigSnapshot> f : futures) {
+			f.setException(t);
+		}
+	}
+}
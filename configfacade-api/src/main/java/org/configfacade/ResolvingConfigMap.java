@@ -0,0 +1,325 @@
+package org.configfacade;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.configfacade.ConfigMap.ReplaceableConfigMap;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
+
+/*
+ * Resolves ${key} references in string values against the whole decorated map.
+ *
+ * Templates are compiled once and the resolved values are kept per generation of the source.
+ * When the source changes only templates whose text or (transitive) references changed are
+ * resolved again. Cycles are rejected before a replacement is committed.
+ */
+final class ResolvingConfigMap implements ReplaceableConfigMap {
+
+	private static final Object ABSENT = new Object();
+
+	private final ReplaceableConfigMap source;
+	private volatile Resolution current;
+
+	public ResolvingConfigMap(ReplaceableConfigMap source) {
+		super();
+		this.source = checkNotNull(source);
+		ConfigSnapshot s = source.snapshot();
+		this.current = Resolution.EMPTY.next(s).pin(s);
+	}
+
+	private Resolution resolution() {
+		Resolution r = current;
+		ConfigSnapshot s = source.snapshot();
+		if (r.snapshot.getGeneration() == s.getGeneration()) return r;
+		return refresh(s);
+	}
+
+	private synchronized Resolution refresh(ConfigSnapshot s) {
+		Resolution r = current;
+		if (r.snapshot.getGeneration() >= s.getGeneration()) return r;
+		r = r.next(s).pin(s);
+		current = r;
+		return r;
+	}
+
+	@Override
+	public Object get(String key) {
+		return resolution().get(key);
+	}
+
+	@Override
+	public Iterable<String> getRawKeys() {
+		return resolution().snapshot.getRawKeys();
+	}
+
+	@Override
+	public boolean containsKey(String key) {
+		return resolution().containsKey(key);
+	}
+
+	@Override
+	public synchronized void replace(ConfigMap m) {
+		// Fails on cycles before anything is swapped
+		Resolution next = current.next(m);
+		source.replace(m);
+		ConfigSnapshot s = source.snapshot();
+		if (current.snapshot.getGeneration() < s.getGeneration()) {
+			current = next.pin(s);
+		}
+	}
+
+	@Override
+	public void reload() {
+		source.reload();
+	}
+
+	@Override
+	public void addListener(FutureCallback<ConfigMap> listener) {
+		source.addListener(listener);
+	}
+
+	@Override
+	public void addWeakListener(FutureCallback<ConfigMap> listener) {
+		source.addWeakListener(listener);
+	}
+
+	@Override
+	public ConfigSnapshot snapshot() {
+		return resolution();
+	}
+
+	@Override
+	public String toString() {
+		return "ResolvingConfigMap [source=" + source + "]";
+	}
+
+	private static final class Resolution implements ConfigSnapshot {
+
+		static final Resolution EMPTY = new Resolution(null,
+				Collections.<String, Template>emptyMap(),
+				Collections.<String, Object>emptyMap(),
+				Collections.<String, Object>emptyMap());
+
+		private final ConfigSnapshot snapshot;
+		private final Map<String, Template> templates;
+		// The last seen value of every referenced key that is not a template
+		private final Map<String, Object> inputs;
+		private final Map<String, Object> resolved;
+
+		private Resolution(ConfigSnapshot snapshot, Map<String, Template> templates,
+				Map<String, Object> inputs, Map<String, Object> resolved) {
+			super();
+			this.snapshot = snapshot;
+			this.templates = templates;
+			this.inputs = inputs;
+			this.resolved = resolved;
+		}
+
+		Resolution pin(ConfigSnapshot s) {
+			return new Resolution(s, templates, inputs, resolved);
+		}
+
+		Resolution next(ConfigMap m) {
+			Map<String, Template> nextTemplates = Maps.newHashMap();
+			Set<String> dirty = Sets.newHashSet();
+			for (String k : m.getRawKeys()) {
+				Object raw = m.get(k);
+				if (! (raw instanceof String)) continue;
+				Template old = templates.get(k);
+				if (old != null && old.text.equals(raw)) {
+					nextTemplates.put(k, old);
+					continue;
+				}
+				Template t = Template.compile((String) raw);
+				if (t != null) {
+					nextTemplates.put(k, t);
+					dirty.add(k);
+				}
+			}
+			for (String k : templates.keySet()) {
+				if (! nextTemplates.containsKey(k)) dirty.add(k);
+			}
+			Map<String, Object> nextInputs = Maps.newHashMap();
+			Map<String, Set<String>> dependents = Maps.newHashMap();
+			for (Map.Entry<String, Template> e : nextTemplates.entrySet()) {
+				for (String ref : e.getValue().refs) {
+					Set<String> d = dependents.get(ref);
+					if (d == null) {
+						d = Sets.newHashSet();
+						dependents.put(ref, d);
+					}
+					d.add(e.getKey());
+					if (nextTemplates.containsKey(ref) || nextInputs.containsKey(ref)) continue;
+					Object v = m.get(ref);
+					nextInputs.put(ref, v);
+					if (! inputs.containsKey(ref) || ! Objects.equal(inputs.get(ref), v)) {
+						dirty.add(ref);
+					}
+				}
+			}
+			checkCycles(nextTemplates);
+
+			Set<String> affected = Sets.newHashSet();
+			Deque<String> work = new ArrayDeque<String>(dirty);
+			while (! work.isEmpty()) {
+				String k = work.poll();
+				if (! affected.add(k)) continue;
+				Set<String> d = dependents.get(k);
+				if (d != null) work.addAll(d);
+			}
+			Map<String, Object> nextResolved = Maps.newHashMap();
+			for (String k : nextTemplates.keySet()) {
+				if (! affected.contains(k) && resolved.containsKey(k)) {
+					nextResolved.put(k, resolved.get(k));
+				}
+			}
+			for (String k : nextTemplates.keySet()) {
+				resolve(k, m, nextTemplates, nextResolved);
+			}
+			return new Resolution(null, ImmutableMap.copyOf(nextTemplates),
+					Collections.unmodifiableMap(nextInputs), ImmutableMap.copyOf(nextResolved));
+		}
+
+		/*
+		 * The graph is acyclic so the recursion terminates.
+		 */
+		private static Object resolve(String key, ConfigMap m, Map<String, Template> templates, Map<String, Object> resolved) {
+			Object o = resolved.get(key);
+			if (o != null) return o;
+			Template t = templates.get(key);
+			if (t == null) {
+				o = m.get(key);
+				return o == null ? ABSENT : o;
+			}
+			Object[] values = new Object[t.refs.length];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = resolve(t.refs[i], m, templates, resolved);
+			}
+			o = t.render(values);
+			resolved.put(key, o);
+			return o;
+		}
+
+		private static void checkCycles(Map<String, Template> templates) {
+			Set<String> done = Sets.newHashSet();
+			List<String> path = Lists.newArrayList();
+			for (String k : templates.keySet()) {
+				visit(k, templates, done, path);
+			}
+		}
+
+		private static void visit(String key, Map<String, Template> templates, Set<String> done, List<String> path) {
+			if (done.contains(key)) return;
+			Template t = templates.get(key);
+			if (t == null) return;
+			int i = path.indexOf(key);
+			if (i >= 0) {
+				List<String> cycle = Lists.newArrayList(path.subList(i, path.size()));
+				cycle.add(key);
+				throw new IllegalArgumentException("Cyclic ${} reference: " + Joiner.on(" -> ").join(cycle));
+			}
+			path.add(key);
+			for (String ref : t.refs) {
+				visit(ref, templates, done, path);
+			}
+			path.remove(path.size() - 1);
+			done.add(key);
+		}
+
+		@Override
+		public Object get(String key) {
+			Object o = resolved.get(key);
+			if (o == ABSENT) return null;
+			if (o != null) return o;
+			return snapshot.get(key);
+		}
+
+		@Override
+		public boolean containsKey(String key) {
+			return get(key) != null;
+		}
+
+		@Override
+		public Iterable<String> getRawKeys() {
+			return snapshot.getRawKeys();
+		}
+
+		@Override
+		public long getGeneration() {
+			return snapshot.getGeneration();
+		}
+
+		@Override
+		public String toString() {
+			return "Resolution [generation=" + getGeneration() + ", templates=" + templates.size() + "]";
+		}
+	}
+
+	/*
+	 * Literals and references alternate: literal, ref, literal, ... literal.
+	 */
+	static final class Template {
+		final String text;
+		final String[] literals;
+		final String[] refs;
+
+		private Template(String text, String[] literals, String[] refs) {
+			this.text = text;
+			this.literals = literals;
+			this.refs = refs;
+		}
+
+		/*
+		 * Returns null if the text has no complete reference.
+		 */
+		static Template compile(String text) {
+			int start = text.indexOf("${");
+			if (start < 0) return null;
+			List<String> literals = Lists.newArrayList();
+			List<String> refs = Lists.newArrayList();
+			int last = 0;
+			int end;
+			while (start >= 0 && (end = text.indexOf('}', start + 2)) >= 0) {
+				literals.add(text.substring(last, start));
+				refs.add(text.substring(start + 2, end).trim());
+				last = end + 1;
+				start = text.indexOf("${", last);
+			}
+			if (refs.isEmpty()) return null;
+			literals.add(text.substring(last));
+			return new Template(text,
+					literals.toArray(new String[literals.size()]),
+					refs.toArray(new String[refs.size()]));
+		}
+
+		/*
+		 * A value that is exactly one reference keeps the type of the referenced value.
+		 */
+		Object render(Object[] values) {
+			for (Object v : values) {
+				if (v == ABSENT) return ABSENT;
+			}
+			if (values.length == 1 && literals[0].isEmpty() && literals[1].isEmpty()) {
+				return values[0];
+			}
+			StringBuilder sb = new StringBuilder(text.length());
+			for (int i = 0; i < values.length; i++) {
+				sb.append(literals[i]).append(values[i]);
+			}
+			return sb.append(literals[values.length]).toString();
+		}
+	}
+}
@@ -0,0 +1,300 @@
+package org.configfacade;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentMap;
+
+import org.configfacade.ConfigMap.NamespacedConfigMap;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.FutureCallback;
+
+/*
+ * Routes keys to shards through a trie of mount path segments.
+ * The mounts are fixed at construction so routing never locks.
+ */
+final class ShardedConfigMap implements NamespacedConfigMap, ConfigFactory.Generational {
+
+	private final ReplaceableConfigMap root;
+	private final ReplaceableConfigMap[] shards;
+	private final String[] mounts;
+	private final Node trie = new Node();
+	// The wrapper of each weak listener lives as long as the listener. It only refers to the
+	// listener weakly, otherwise the listener would never become unreachable.
+	private final ConcurrentMap<FutureCallback<ConfigMap>, FutureCallback<ConfigMap>> weakListeners =
+			new MapMaker().weakKeys().makeMap();
+
+	public ShardedConfigMap(ReplaceableConfigMap root, Map<String, ? extends ReplaceableConfigMap> shards) {
+		super();
+		this.root = checkNotNull(root);
+		this.shards = new ReplaceableConfigMap[shards.size()];
+		this.mounts = new String[shards.size()];
+		int i = 0;
+		for (Entry<String, ? extends ReplaceableConfigMap> e : shards.entrySet()) {
+			String mount = ConfigFactory.validatePath(e.getKey());
+			this.shards[i] = checkNotNull(e.getValue(), "Shard was null: %s", mount);
+			this.mounts[i] = mount;
+			Node n = trie;
+			for (String segment : ConfigFactory.splitPath(mount)) {
+				n = n.add(segment);
+			}
+			checkArgument(n.shard < 0, "Path is mounted twice: %s", mount);
+			n.shard = i++;
+		}
+	}
+
+	/*
+	 * Returns the index of the deepest mount that owns the key or -1 for the root.
+	 * A mount only owns keys below it, never the key of the mount path itself.
+	 */
+	int route(String key) {
+		Node n = trie;
+		int found = -1;
+		int start = 0;
+		int end;
+		while ((end = key.indexOf('.', start)) >= 0) {
+			n = n.child(key, start, end);
+			if (n == null) break;
+			if (n.shard >= 0) found = n.shard;
+			start = end + 1;
+		}
+		return found;
+	}
+
+	private String relativeKey(int shard, String key) {
+		return key.substring(mounts[shard].length() + 1);
+	}
+
+	@Override
+	public Object get(String key) {
+		int i = route(key);
+		return i < 0 ? root.get(key) : shards[i].get(relativeKey(i, key));
+	}
+
+	@Override
+	public boolean containsKey(String key) {
+		int i = route(key);
+		return i < 0 ? root.containsKey(key) : shards[i].containsKey(relativeKey(i, key));
+	}
+
+	@Override
+	public Iterable<String> getRawKeys() {
+		return rawKeys(root, Arrays.<ConfigMap>asList(shards));
+	}
+
+	private Iterable<String> rawKeys(ConfigMap r, List<? extends ConfigMap> s) {
+		List<Iterable<String>> keys = Lists.newArrayListWithCapacity(s.size() + 1);
+		keys.add(FluentIterable.from(r.getRawKeys()).filter(new Predicate<String>() {
+			@Override
+			public boolean apply(String input) {
+				return route(input) < 0;
+			}
+		}));
+		for (int i = 0; i < s.size(); i++) {
+			final String prefix = mounts[i] + ".";
+			keys.add(FluentIterable.from(s.get(i).getRawKeys()).transform(new Function<String, String>() {
+				@Override
+				public String apply(String input) {
+					return prefix + input;
+				}
+			}));
+		}
+		return FluentIterable.from(keys).transformAndConcat(new Function<Iterable<String>, Iterable<String>>() {
+			@Override
+			public Iterable<String> apply(Iterable<String> input) {
+				return input;
+			}
+		});
+	}
+
+	@Override
+	public ReplaceableConfigMap getShard(String key) {
+		int i = route(key);
+		return i < 0 ? root : shards[i];
+	}
+
+	@Override
+	public Map<String, ReplaceableConfigMap> getMounts() {
+		ImmutableMap.Builder<String, ReplaceableConfigMap> b = ImmutableMap.builder();
+		for (int i = 0; i < shards.length; i++) {
+			b.put(mounts[i], shards[i]);
+		}
+		return b.build();
+	}
+
+	@Override
+	public void replace(ConfigMap m) {
+		root.replace(m);
+	}
+
+	@Override
+	public void reload() {
+		root.reload();
+		for (ReplaceableConfigMap s : shards) {
+			s.reload();
+		}
+	}
+
+	/*
+	 * A listener on the whole map hears about every shard.
+	 * Properties register on their own shard through getShard instead.
+	 */
+	@Override
+	public void addListener(final FutureCallback<ConfigMap> listener) {
+		FutureCallback<ConfigMap> l = new FutureCallback<ConfigMap>() {
+			@Override
+			public void onSuccess(ConfigMap result) {
+				listener.onSuccess(ShardedConfigMap.this);
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				listener.onFailure(t);
+			}
+		};
+		root.addListener(l);
+		for (ReplaceableConfigMap s : shards) {
+			s.addListener(l);
+		}
+	}
+
+	/*
+	 * Like addListener the listener is told about this map rather than the shard that changed.
+	 */
+	@Override
+	public void addWeakListener(FutureCallback<ConfigMap> listener) {
+		FutureCallback<ConfigMap> l = weakListeners.get(listener);
+		if (l == null) {
+			final WeakReference<FutureCallback<ConfigMap>> ref = new WeakReference<FutureCallback<ConfigMap>>(listener);
+			l = new FutureCallback<ConfigMap>() {
+				@Override
+				public void onSuccess(ConfigMap result) {
+					FutureCallback<ConfigMap> c = ref.get();
+					if (c != null) c.onSuccess(ShardedConfigMap.this);
+				}
+
+				@Override
+				public void onFailure(Throwable t) {
+					FutureCallback<ConfigMap> c = ref.get();
+					if (c != null) c.onFailure(t);
+				}
+			};
+			FutureCallback<ConfigMap> existing = weakListeners.putIfAbsent(listener, l);
+			if (existing != null) l = existing;
+		}
+		root.addWeakListener(l);
+		for (ReplaceableConfigMap s : shards) {
+			s.addWeakListener(l);
+		}
+	}
+
+	/*
+	 * Pins every shard. The generation is the sum of the shard generations
+	 * which is monotonic as long as each shard is.
+	 */
+	@Override
+	public ConfigSnapshot snapshot() {
+		ConfigSnapshot r = root.snapshot();
+		long generation = r.getGeneration();
+		ConfigSnapshot[] s = new ConfigSnapshot[shards.length];
+		for (int i = 0; i < shards.length; i++) {
+			s[i] = shards[i].snapshot();
+			generation += s[i].getGeneration();
+		}
+		return new ShardedSnapshot(r, s, generation);
+	}
+
+	@Override
+	public long generation() {
+		long generation = ConfigFactory.generationOf(root);
+		for (ReplaceableConfigMap s : shards) {
+			generation += ConfigFactory.generationOf(s);
+		}
+		return generation;
+	}
+
+	@Override
+	public String toString() {
+		return "ShardedConfigMap [root=" + root + ", mounts=" + Arrays.toString(mounts) + "]";
+	}
+
+	private final class ShardedSnapshot implements ConfigSnapshot {
+
+		private final ConfigSnapshot root;
+		private final ConfigSnapshot[] shards;
+		private final long generation;
+
+		public ShardedSnapshot(ConfigSnapshot root, ConfigSnapshot[] shards, long generation) {
+			super();
+			this.root = root;
+			this.shards = shards;
+			this.generation = generation;
+		}
+
+		@Override
+		public Object get(String key) {
+			int i = route(key);
+			return i < 0 ? root.get(key) : shards[i].get(relativeKey(i, key));
+		}
+
+		@Override
+		public boolean containsKey(String key) {
+			int i = route(key);
+			return i < 0 ? root.containsKey(key) : shards[i].containsKey(relativeKey(i, key));
+		}
+
+		@Override
+		public Iterable<String> getRawKeys() {
+			return rawKeys(root, Arrays.asList(shards));
+		}
+
+		@Override
+		public long getGeneration() {
+			return generation;
+		}
+
+		@Override
+		public String toString() {
+			return "ShardedSnapshot [generation=" + generation + "]";
+		}
+	}
+
+	private static final class Node {
+		private String[] segments = new String[0];
+		private Node[] children = new Node[0];
+		private int shard = -1;
+
+		Node child(String key, int start, int end) {
+			int length = end - start;
+			for (int i = 0; i < segments.length; i++) {
+				String s = segments[i];
+				if (s.length() == length && key.regionMatches(start, s, 0, length)) {
+					return children[i];
+				}
+			}
+			return null;
+		}
+
+		Node add(String segment) {
+			Node n = child(segment, 0, segment.length());
+			if (n != null) return n;
+			n = new Node();
+			segments = Arrays.copyOf(segments, segments.length + 1);
+			children = Arrays.copyOf(children, children.length + 1);
+			segments[segments.length - 1] = segment;
+			children[children.length - 1] = n;
+			return n;
+		}
+	}
+}
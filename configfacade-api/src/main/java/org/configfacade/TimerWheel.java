@@ -0,0 +1,198 @@
+package org.configfacade;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * A hashed timer wheel driven by one daemon thread. Scheduling is lock free, expired
+ * tasks are handed to an executor so a slow task never delays the wheel.
+ *
+ * The thread is only started on the first schedule and parks while nothing is scheduled.
+ */
+final class TimerWheel {
+
+	private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final int WHEEL_SIZE = 512;
+
+	private final Timeout[] wheel = new Timeout[WHEEL_SIZE];
+	private final Queue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+	private final AtomicInteger outstanding = new AtomicInteger();
+	private final Executor executor;
+	private final String name;
+	private final long start = System.nanoTime();
+	private Thread thread;
+	// Only touched by the wheel thread
+	private long tick;
+
+	TimerWheel(String name, Executor executor) {
+		this.name = name;
+		this.executor = executor;
+	}
+
+	private static class Holder {
+		static final Executor EXECUTOR = newDaemonPool("configfacade-refresh");
+		static final TimerWheel SHARED = new TimerWheel("configfacade-timer", EXECUTOR);
+	}
+
+	static TimerWheel shared() {
+		return Holder.SHARED;
+	}
+
+	static Executor sharedExecutor() {
+		return Holder.EXECUTOR;
+	}
+
+	private static class BlockingHolder {
+		static final Executor EXECUTOR = newDaemonCachedPool("configfacade-io");
+	}
+
+	/*
+	 * For tasks that block on files or remote sources, so they never hold up the refresh pool.
+	 */
+	static Executor blockingExecutor() {
+		return BlockingHolder.EXECUTOR;
+	}
+
+	/*
+	 * Runs the task on the executor once the delay has passed, rounded up to the next tick.
+	 */
+	void schedule(Runnable task, long delayNanos) {
+		pending.add(new Timeout(checkNotNull(task), System.nanoTime() + delayNanos));
+		if (outstanding.getAndIncrement() == 0) {
+			wakeUp();
+		}
+	}
+
+	private synchronized void wakeUp() {
+		if (thread == null) {
+			thread = newThread(name, new Runnable() {
+				@Override
+				public void run() {
+					loop();
+				}
+			});
+			thread.start();
+		}
+		notifyAll();
+	}
+
+	private void loop() {
+		while (true) {
+			try {
+				synchronized (this) {
+					if (outstanding.get() == 0) {
+						while (outstanding.get() == 0) {
+							wait();
+						}
+						// The wheel is empty so it can skip the ticks it slept through
+						tick = Math.max(tick, (System.nanoTime() - start) / TICK_NANOS);
+					}
+				}
+				long deadline = start + (tick + 1) * TICK_NANOS;
+				long sleep = deadline - System.nanoTime();
+				if (sleep > 0) {
+					TimeUnit.NANOSECONDS.sleep(sleep);
+				}
+				transferPending();
+				expire((int) (tick & (WHEEL_SIZE - 1)));
+				tick++;
+			}
+			catch (InterruptedException e) {
+				// The shared wheel lives as long as the JVM
+				Thread.interrupted();
+			}
+		}
+	}
+
+	private void transferPending() {
+		Timeout t;
+		while ((t = pending.poll()) != null) {
+			long ticks = Math.max((t.deadline - start + TICK_NANOS - 1) / TICK_NANOS, tick);
+			t.rounds = (ticks - tick) / WHEEL_SIZE;
+			int i = (int) (ticks & (WHEEL_SIZE - 1));
+			t.next = wheel[i];
+			wheel[i] = t;
+		}
+	}
+
+	private void expire(int bucket) {
+		Timeout previous = null;
+		Timeout t = wheel[bucket];
+		while (t != null) {
+			Timeout next = t.next;
+			if (t.rounds > 0) {
+				t.rounds--;
+				previous = t;
+			}
+			else {
+				if (previous == null) wheel[bucket] = next;
+				else previous.next = next;
+				outstanding.decrementAndGet();
+				try {
+					executor.execute(t.task);
+				}
+				catch (RuntimeException e) {
+					// A rejected task is dropped, the wheel keeps going
+				}
+			}
+			t = next;
+		}
+	}
+
+	private static Thread newThread(String name, Runnable r) {
+		Thread t = new Thread(r, name);
+		t.setDaemon(true);
+		return t;
+	}
+
+	static Executor newDaemonPool(final String name) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		ThreadPoolExecutor e = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						return TimerWheel.newThread(name + "-" + count.incrementAndGet(), r);
+					}
+				});
+		e.allowCoreThreadTimeOut(true);
+		return e;
+	}
+
+	/*
+	 * Grows with the blocked tasks and lets idle threads go.
+	 */
+	static Executor newDaemonCachedPool(final String name) {
+		return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						return TimerWheel.newThread(name + "-" + count.incrementAndGet(), r);
+					}
+				});
+	}
+
+	private static final class Timeout {
+		final Runnable task;
+		final long deadline;
+		long rounds;
+		Timeout next;
+
+		Timeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package org.configfacade;
+
+import static com.google.common.collect.Maps.newLinkedHashMap;
+import static java.lang.System.out;
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import org.configfacade.Config.Property;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+
+/**
+ * Counts the bytes allocated by steady state property reads. Excluded from the default build,
+ * run with <code>mvn test -Dtest=AllocationBenchTest</code> on a HotSpot JVM.
+ */
+public class AllocationBenchTest {
+
+    private static final int READS = 1000000;
+
+    @Test
+    public void testReadsDoNotAllocate() throws Exception {
+        Map<String, Object> o = newLinkedHashMap();
+        o.put("port", 8080);
+        o.put("host", "localhost");
+        Config c = ConfigFactory.fromMap(o);
+        Supplier<Optional<? extends Integer>> supplier = Suppliers.<Optional<? extends Integer>> ofInstance(Optional.of(1));
+
+        assertEquals(0, allocatedPerRead("default", c.getInteger("port")));
+        assertEquals(0, allocatedPerRead("string", c.getString("host")));
+        assertEquals(0, allocatedPerRead("static", Property.of("port", 1)));
+        assertEquals(0, allocatedPerRead("supplier", Property.of("port", supplier)));
+        assertEquals(0, allocatedPerRead("chained", c.getInteger("missing").or(c.getInteger("port")).or(1)));
+        assertEquals(0, allocatedPerRead("cached", c.getInteger("port").cache()));
+        assertEquals(0, allocatedPerRead("backup", c.getInteger("port").backup()));
+    }
+
+    private static <T> long allocatedPerRead(String name, Property<T> p) {
+        long sum = 0;
+        for (int i = 0; i < READS; i++) {
+            sum += read(p);
+        }
+        long before = allocatedBytes();
+        for (int i = 0; i < READS; i++) {
+            sum += read(p);
+        }
+        long bytes = allocatedBytes() - before;
+        out.println(name + ": " + bytes + " bytes for " + READS + " reads (" + sum + ")");
+        return bytes / READS;
+    }
+
+    private static <T> int read(Property<T> p) {
+        return p.isPresent() && p.get() == p.orValue(null) ? 1 : 0;
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
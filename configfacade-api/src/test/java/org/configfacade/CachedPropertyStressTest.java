@@ -0,0 +1,114 @@
+package org.configfacade;
+
+import static com.google.common.collect.Maps.newLinkedHashMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.configfacade.Config.Property;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/*
+ * Readers race a writer that keeps replacing the map. Once a replace has returned no reader may
+ * see an older value, which a cache invalidated by listeners could do forever.
+ */
+public class CachedPropertyStressTest {
+
+    private static final int REPLACES = 20000;
+    private static final int READERS = 3;
+
+    @Test
+    public void testNoStaleValueAfterReplace() throws Exception {
+        final Config c = ConfigFactory.fromMap(port(0));
+        final Property<Integer> port = c.getInteger("port").cache();
+        final AtomicInteger published = new AtomicInteger();
+        final AtomicReference<String> violation = new AtomicReference<String>();
+        final CountDownLatch done = new CountDownLatch(READERS);
+        for (int r = 0; r < READERS; r++) {
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (published.get() < REPLACES && violation.get() == null) {
+                            int floor = published.get();
+                            int seen = port.get();
+                            if (seen < floor) {
+                                violation.compareAndSet(null, "saw " + seen + " after " + floor + " was published");
+                            }
+                        }
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            });
+            t.setDaemon(true);
+            t.start();
+        }
+        for (int i = 1; i <= REPLACES && violation.get() == null; i++) {
+            c.replace(ConfigFactory.toConfigMap(port(i)));
+            published.set(i);
+        }
+        published.set(REPLACES);
+        done.await();
+        assertTrue(violation.get(), violation.get() == null);
+        assertEquals(Integer.valueOf(REPLACES), port.get());
+    }
+
+    /*
+     * Forces the interleaving the old cache lost: a read of the old map is still in flight while
+     * the replace and its listeners complete, and only then stores what it read.
+     */
+    @Test
+    public void testReadRacingReplace() throws Exception {
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch replaced = new CountDownLatch(1);
+        final ConfigMap old = ConfigFactory.toConfigMap(port(1));
+        ConfigMap blocking = new ConfigMap() {
+            @Override
+            public Object get(String key) {
+                Object o = old.get(key);
+                reading.countDown();
+                Uninterruptibles.awaitUninterruptibly(replaced, 5, TimeUnit.SECONDS);
+                return o;
+            }
+
+            @Override
+            public boolean containsKey(String key) {
+                return old.containsKey(key);
+            }
+
+            @Override
+            public Iterable<String> getRawKeys() {
+                return old.getRawKeys();
+            }
+        };
+        Config c = ConfigFactory.from(blocking);
+        final Property<Integer> port = c.getInteger("port").cache();
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                port.get();
+            }
+        });
+        reader.start();
+        assertTrue(reading.await(5, TimeUnit.SECONDS));
+        c.replace(ConfigFactory.toConfigMap(port(2)));
+        replaced.countDown();
+        reader.join();
+        assertEquals(Integer.valueOf(2), port.get());
+    }
+
+    private static Map<String, Object> port(int i) {
+        Map<String, Object> o = newLinkedHashMap();
+        o.put("port", String.valueOf(i));
+        return o;
+    }
+}
@@ -0,0 +1,143 @@
+package org.configfacade;
+
+import static com.google.common.collect.Maps.newLinkedHashMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.configfacade.Config.Property;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class CallbackExecutionListTest {
+
+    @Test
+    public void testRemove() throws Exception {
+        CallbackExecutionList<String> list = new CallbackExecutionList<String>();
+        AtomicInteger count = new AtomicInteger();
+        FutureCallback<String> a = counter(count);
+        FutureCallback<String> b = counter(count);
+        list.add(a, MoreExecutors.sameThreadExecutor());
+        list.addWeak(b, MoreExecutors.sameThreadExecutor());
+        list.onSuccess("x");
+        assertEquals(2, count.get());
+        assertTrue(list.remove(a));
+        list.onSuccess("x");
+        assertEquals(3, count.get());
+        assertEquals(1, list.size());
+    }
+
+    @Test
+    public void testWeakPurge() throws Exception {
+        CallbackExecutionList<String> list = new CallbackExecutionList<String>();
+        AtomicInteger count = new AtomicInteger();
+        FutureCallback<String> kept = counter(count);
+        list.addWeak(kept, MoreExecutors.sameThreadExecutor());
+        for (int i = 0; i < 10000; i++) {
+            list.addWeak(counter(count), MoreExecutors.sameThreadExecutor());
+        }
+        for (int i = 0; i < 50 && list.size() > 1; i++) {
+            System.gc();
+            Thread.sleep(10);
+            list.onSuccess("x");
+        }
+        assertEquals(1, list.size());
+        count.set(0);
+        list.onSuccess("x");
+        assertEquals(1, count.get());
+        assertTrue(kept != null);
+    }
+
+    @Test
+    public void testCachedPropertiesDoNotLeak() throws Exception {
+        Map<String, Object> o = newLinkedHashMap();
+        o.put("host", "localhost");
+        ListeningMap m = new ListeningMap(ConfigFactory.replaceable(ConfigFactory.toConfigMap(o)));
+        Config c = ConfigFactory.from(m);
+        Property<String> kept = c.getString("host").cache();
+        for (int i = 0; i < 10000; i++) {
+            assertEquals("localhost", c.getString("host").cache().get());
+        }
+        // Cached properties validate against the generation and register no listeners
+        for (int i = 0; i < 50 && m.listeners.size() > 0; i++) {
+            System.gc();
+            Thread.sleep(10);
+            c.reload();
+        }
+        assertEquals(0, m.listeners.size());
+        assertEquals("localhost", kept.get());
+        o.put("host", "changed");
+        assertEquals("localhost", kept.get());
+        c.reload();
+        assertEquals("changed", kept.get());
+    }
+
+    private static class ListeningMap implements ConfigMap.ReplaceableConfigMap {
+        private final ConfigMap.ReplaceableConfigMap delegate;
+        private final CallbackExecutionList<ConfigMap> listeners = new CallbackExecutionList<ConfigMap>();
+
+        public ListeningMap(ConfigMap.ReplaceableConfigMap delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Object get(String key) {
+            return delegate.get(key);
+        }
+
+        @Override
+        public Iterable<String> getRawKeys() {
+            return delegate.getRawKeys();
+        }
+
+        @Override
+        public boolean containsKey(String key) {
+            return delegate.containsKey(key);
+        }
+
+        @Override
+        public void reload() {
+            delegate.reload();
+            listeners.onSuccess(this);
+        }
+
+        @Override
+        public void replace(ConfigMap m) {
+            delegate.replace(m);
+            listeners.onSuccess(this);
+        }
+
+        @Override
+        public void addListener(FutureCallback<ConfigMap> listener) {
+            listeners.add(listener, MoreExecutors.sameThreadExecutor());
+        }
+
+        @Override
+        public void addWeakListener(FutureCallback<ConfigMap> listener) {
+            listeners.addWeak(listener, MoreExecutors.sameThreadExecutor());
+        }
+
+        @Override
+        public ConfigSnapshot snapshot() {
+            return delegate.snapshot();
+        }
+    }
+
+    static <T> FutureCallback<T> counter(final AtomicInteger count) {
+        return new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                count.incrementAndGet();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                count.incrementAndGet();
+            }
+        };
+    }
+}
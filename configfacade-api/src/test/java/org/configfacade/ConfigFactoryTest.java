@@ -5,23 +5,63 @@ import static java.lang.System.out;
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.channels.Channels;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.configfacade.Config.Batch;
 import org.configfacade.Config.Property;
+import org.configfacade.Config.Type;
+import org.configfacade.Config.Values;
 import org.configfacade.ConfigFactory.BindConfig;
+import org.configfacade.ConfigFactory.PrintConfig;
+import org.configfacade.ConfigMap.CachingConfigMap;
+import org.configfacade.ConfigMap.LayeredConfigMap;
+import org.configfacade.ConfigMap.NamespacedConfigMap;
+import org.configfacade.ConfigMap.PatchableConfigMap;
+import org.configfacade.ConfigMap.ReplaceableConfigMap;
+import org.configfacade.ConfigMap.VersionedConfigMap;
 import org.junit.Test;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
 import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 public class ConfigFactoryTest {
 
@@ -241,6 +281,1199 @@ public class ConfigFactoryTest {
         c.reload();
     }
 
+    @Test
+    public void testChainedSkipsUnchangedLinks() throws Exception {
+        // Counts the reads of the failing primary link, whose parse is not memoized
+        final AtomicInteger parses = new AtomicInteger();
+        Converters.register(Port.class, new Function<String, Port>() {
+            @Override
+            public Port apply(String input) {
+                parses.incrementAndGet();
+                return new Port(Integer.parseInt(input.trim()));
+            }
+        });
+        Config c = ConfigFactory.fromMap(ImmutableMap.of("primary", "NaN", "fallback", "2"));
+        Property<Port> p = c.getProperty("primary", Port.class).or(c.getProperty("fallback", Port.class)).or(new Port(5));
+
+        assertEquals(2, p.get().number);
+        int reads = parses.get();
+        assertEquals(2, p.get().number);
+        assertEquals(reads, parses.get());
+
+        c.replace(ConfigFactory.toConfigMap(ImmutableMap.of("primary", "1", "fallback", "2")));
+        assertEquals(1, p.get().number);
+
+        c.replace(ConfigFactory.toConfigMap(ImmutableMap.of()));
+        assertEquals(5, p.get().number);
+        try {
+            c.getInteger("x").or(c.getInteger("primary")).get();
+            fail();
+        }
+        catch (IllegalStateException e) {
+        }
+    }
+
+    @Test
+    public void testChainedReadsMapsMutatedInPlace() throws Exception {
+        Map<String, Object> o = newLinkedHashMap();
+        o.put("fallback", "1");
+        Config c = ConfigFactory.fromMap(o);
+        Property<String> p = c.getString("override").or(c.getString("fallback"));
+        assertEquals("1", p.get());
+        assertEquals("1", p.get());
+        // No reload, the view is always read through
+        o.put("override", "2");
+        assertEquals("2", p.get());
+        assertEquals(c.getString("override").get(), p.get());
+        o.remove("override");
+        assertEquals("1", p.get());
+    }
+
+    public static final class Port {
+        final int number;
+
+        Port(int number) {
+            this.number = number;
+        }
+    }
+
+    @Test
+    public void testTryParse() throws Exception {
+        for (String s : asList("0", "-1", "+7", "0x1F", "#ff", "-0X10", "017", "9223372036854775807",
+                "-9223372036854775808", "9223372036854775808", "", "-", "0x", "1-", "--1", "-+1", "0x-1", "09", " 1")) {
+            Long expected;
+            try {
+                expected = Long.decode(s);
+            }
+            catch (NumberFormatException e) {
+                expected = null;
+            }
+            assertEquals(s, expected, ConfigFactory.tryParse(s, Type.LONG));
+        }
+        assertEquals(Integer.MIN_VALUE, ConfigFactory.tryParse("-2147483648", Type.INTEGER));
+        assertNull(ConfigFactory.tryParse("2147483648", Type.INTEGER));
+        assertEquals(1.5d, ConfigFactory.tryParse(" 1.5 ", Type.DOUBLE));
+        assertNull(ConfigFactory.tryParse("1.5.", Type.DOUBLE));
+    }
+
+    @Test
+    public void testCompact() throws Exception {
+        Map<String, Object> o = newLinkedHashMap();
+        for (int t = 0; t < 100; t++) {
+            for (String service : asList("db", "cache", "queue")) {
+                o.put("tenant." + t + ".service." + service + ".limits.max", t);
+                o.put("tenant." + t + ".service." + service + ".limits.min", "0");
+            }
+        }
+        o.put("tenant", "root");
+        CompactConfigMap m = (CompactConfigMap) ConfigFactory.compact(ConfigFactory.toConfigMap(o));
+
+        assertEquals(o.size(), m.size());
+        assertEquals(o.size(), Iterables.size(m.getRawKeys()));
+        for (String k : m.getRawKeys()) {
+            assertEquals(o.get(k), m.get(k));
+        }
+        assertEquals(100 + 8, m.segmentCount());
+        assertNull(m.get("tenant.1.service"));
+        assertNull(m.get("tenant.1.service.db.limits.avg"));
+        assertNull(m.get("unknown"));
+
+        Config c = ConfigFactory.from(m).atPath("tenant.42.service.db");
+        assertEquals(42, c.getInteger("limits.max").get().intValue());
+        assertEquals(0, c.getInteger("limits.min").get().intValue());
+    }
+
+    @Test
+    public void testLayered() throws Exception {
+        Map<String, Object> b = newLinkedHashMap();
+        b.put("db.host", "shared");
+        b.put("db.port", 5432);
+        LayeredConfigMap base = ConfigFactory.layered(ConfigFactory.toConfigMap(b));
+
+        Map<String, Object> acme = newLinkedHashMap();
+        acme.put("db.host", "acme");
+        Config tenant = ConfigFactory.fromMap(acme).withFallback(base);
+        ReplaceableConfigMap overlay = base.overlay(ConfigFactory.toConfigMap(Maps.<String, Object> newHashMap()));
+        Config other = ConfigFactory.from(overlay);
+
+        assertEquals("acme", tenant.getString("db.host").get());
+        assertEquals(5432, tenant.getInteger("db.port").get().intValue());
+        assertEquals("shared", other.getString("db.host").get());
+        assertEquals(2, Iterables.size(tenant.getPaths()));
+
+        AtomicInteger tenantChanges = new AtomicInteger();
+        AtomicInteger otherChanges = new AtomicInteger();
+        Property<Integer> port = tenant.getInteger("db.port").cache();
+        port.addListener(counter(tenantChanges));
+        other.getString("db.host").addListener(counter(otherChanges));
+        tenantChanges.set(0);
+        otherChanges.set(0);
+
+        Map<String, Object> b2 = newLinkedHashMap();
+        b2.put("db.host", "shared2");
+        b2.put("db.port", 6543);
+        long generation = tenant.snapshot().getGeneration();
+        base.replace(ConfigFactory.toConfigMap(b2));
+        assertEquals(6543, port.get().intValue());
+        assertEquals("acme", tenant.getString("db.host").get());
+        assertEquals("shared2", other.getString("db.host").get());
+        assertEquals(1, tenantChanges.get());
+        assertEquals(1, otherChanges.get());
+        assertTrue(tenant.snapshot().getGeneration() > generation);
+        // Cached properties read the generation without building a snapshot
+        assertEquals(overlay.snapshot().getGeneration(), ConfigFactory.generationOf(overlay));
+
+        acme.put("db.port", 1);
+        tenant.reload();
+        assertEquals(1, port.get().intValue());
+        assertEquals(2, tenantChanges.get());
+        assertEquals(1, otherChanges.get());
+    }
+
+    @Test
+    public void testLazy() throws Exception {
+        final List<String> loads = Lists.newArrayList();
+        NamespacedConfigMap m = ConfigFactory.lazy(new ConfigFactory.SubtreeLoader() {
+            @Override
+            public Iterable<String> getPrefixes() {
+                return asList("services.db", "services.cache", "services.queue");
+            }
+
+            @Override
+            public Iterable<String> getKeys(String prefix) {
+                return asList("host", "port");
+            }
+
+            @Override
+            public ConfigMap load(String prefix) {
+                loads.add(prefix);
+                Map<String, Object> o = newLinkedHashMap();
+                o.put("host", prefix + ".local");
+                o.put("port", loads.size());
+                return ConfigFactory.toConfigMap(o);
+            }
+        });
+        Config c = ConfigFactory.from(m);
+        assertTrue(loads.isEmpty());
+
+        assertEquals("services.db.local", c.getString("services.db.host").get());
+        assertEquals(asList("services.db"), loads);
+        assertEquals("services.cache.local", c.atPath("services.cache").getString("host").get());
+        assertEquals(asList("services.db", "services.cache"), loads);
+        assertFalse(c.getString("services.other.host").isPresent());
+        assertEquals(2, loads.size());
+
+        // Enumerating lists the keys of the loader without loading the subtrees
+        assertEquals(6, Iterables.size(c.getPaths()));
+        assertEquals(2, loads.size());
+        assertFalse(((LazySubtreeConfigMap) m.getShard("services.queue.host")).isLoaded());
+
+        m.getShard("services.queue.host").reload();
+        assertEquals(6, Iterables.size(c.getPaths()));
+        assertEquals(2, loads.size());
+
+        Property<Integer> port = c.getInteger("services.db.port").cache();
+        assertEquals(1, port.get().intValue());
+        m.getShard("services.db.port").reload();
+        assertEquals(3, port.get().intValue());
+
+        // A snapshot defers loading a subtree to its first read and takes the generation of that load
+        ConfigSnapshot s = c.snapshot();
+        assertEquals(3, loads.size());
+        assertFalse(((LazySubtreeConfigMap) m.getShard("services.queue.host")).isLoaded());
+        assertEquals("services.queue.local", s.get("services.queue.host"));
+        assertEquals(4, loads.size());
+        assertEquals(s.getGeneration(), m.snapshot().getGeneration());
+    }
+
+    @Test
+    public void testAsyncReload() throws Exception {
+        Map<String, Object> o = newLinkedHashMap();
+        o.put("port", 1);
+        Config c = ConfigFactory.fromMap(o);
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger notified = new AtomicInteger();
+        c.addListener(new FutureCallback<ConfigMap>() {
+            @Override
+            public void onSuccess(ConfigMap result) {
+                notified.incrementAndGet();
+                entered.countDown();
+                Uninterruptibles.awaitUninterruptibly(release);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+            }
+        });
+        long start = c.snapshot().getGeneration();
+
+        ListenableFuture<ConfigSnapshot> first = c.reloadAsync(true);
+        assertTrue(entered.await(5, TimeUnit.SECONDS));
+        assertEquals(start + 1, c.snapshot().getGeneration());
+        assertFalse(first.isDone());
+
+        List<ListenableFuture<ConfigSnapshot>> queued = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            queued.add(c.reloadAsync(false));
+        }
+        Map<String, Object> replaced = newLinkedHashMap();
+        replaced.put("port", 2);
+        ListenableFuture<ConfigSnapshot> last = c.atPath("x").replaceAsync(ConfigFactory.toConfigMap(replaced), true);
+        release.countDown();
+
+        assertEquals(start + 1, first.get(5, TimeUnit.SECONDS).getGeneration());
+        for (ListenableFuture<ConfigSnapshot> f : queued) {
+            assertEquals(start + 2, f.get(5, TimeUnit.SECONDS).getGeneration());
+        }
+        assertEquals(start + 2, last.get(5, TimeUnit.SECONDS).getGeneration());
+        assertEquals(2, c.getInteger("port").get().intValue());
+        assertEquals(2, notified.get());
+    }
+
+    @Test
+    public void testAsyncReloadSurvivesErrors() throws Exception {
+        Config c = ConfigFactory.fromMap(ImmutableMap.of("port", 1));
+        final AtomicInteger failing = new AtomicInteger();
+        c.addListener(new FutureCallback<ConfigMap>() {
+            @Override
+            public void onSuccess(ConfigMap result) {
+                if (failing.get() > 0) throw new Error("listener");
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+            }
+        });
+        failing.set(1);
+        try {
+            c.reloadAsync(true).get(5, TimeUnit.SECONDS);
+            fail();
+        }
+        catch (ExecutionException e) {
+            assertEquals("listener", e.getCause().getMessage());
+        }
+        failing.set(0);
+        long generation = c.snapshot().getGeneration();
+        assertEquals(generation + 1, c.reloadAsync(true).get(5, TimeUnit.SECONDS).getGeneration());
+    }
+
+    @Test
+    public void testValidated() throws Exception {
+        ConfigSchema schema = ConfigSchema.builder()
+                .include("app", ConfigFactory.schema(Example.class))
+                .build();
+        assertEquals(5, schema.size());
+
+        Map<String, Object> o = newLinkedHashMap();
+        o.put("app.host", "localhost");
+        o.put("app.port", "8080");
+        o.put("app.user", "admin");
+        o.put("app.auto", true);
+        Config c = ConfigFactory.from(ConfigFactory.validated(ConfigFactory.toConfigMap(o), schema));
+        Example e = ConfigFactory.bind(c.atPath("app"), Example.class);
+        long generation = c.snapshot().getGeneration();
+
+        Map<String, Object> bad = newLinkedHashMap(o);
+        bad.put("app.port", "abc");
+        bad.remove("app.user");
+        try {
+            c.replace(ConfigFactory.toConfigMap(bad));
+            fail();
+        }
+        catch (IllegalArgumentException ex) {
+            // Method order is not defined so neither is the order of the violations
+            assertTrue(ex.getMessage().contains("'app.port' should be INTEGER but was 'abc'"));
+            assertTrue(ex.getMessage().contains("'app.user' is missing"));
+        }
+        assertEquals(8080, e.getPort());
+        assertEquals(generation, c.snapshot().getGeneration());
+        try {
+            c.replaceAsync(ConfigFactory.toConfigMap(bad), false).get(5, TimeUnit.SECONDS);
+            fail();
+        }
+        catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof IllegalArgumentException);
+        }
+
+        Map<String, Object> good = newLinkedHashMap(o);
+        good.put("app.port", 9090);
+        c.replace(ConfigFactory.toConfigMap(good));
+        assertEquals(9090, e.getPort());
+
+        // A change made in place is only visible once a reload has checked it
+        good.put("app.port", "abc");
+        assertEquals(9090, e.getPort());
+        generation = c.snapshot().getGeneration();
+        try {
+            c.reload();
+            fail();
+        }
+        catch (IllegalArgumentException ex) {
+        }
+        assertEquals(9090, e.getPort());
+        assertEquals(generation, c.snapshot().getGeneration());
+        good.put("app.port", "7070");
+        c.reload();
+        assertEquals(7070, e.getPort());
+
+        // A reload that loads an invalid map from its source is rejected before the commit
+        File f = File.createTempFile("validated", ".bin");
+        try {
+            final List<Map<String, Object>> loads = Lists.newArrayList();
+            loads.add(o);
+            loads.add(bad);
+            ReplaceableConfigMap source = new PersistentConfigMap(
+                    ConfigFactory.replaceable(ConfigFactory.toConfigMap(o)), f, new Callable<ConfigMap>() {
+                        @Override
+                        public ConfigMap call() throws Exception {
+                            return ConfigFactory.toConfigMap(loads.remove(0));
+                        }
+                    }, MoreExecutors.sameThreadExecutor());
+            Config loaded = ConfigFactory.from(ConfigFactory.validated(source, schema));
+            loaded.reload();
+            generation = loaded.snapshot().getGeneration();
+            try {
+                loaded.reload();
+                fail();
+            }
+            catch (IllegalArgumentException ex) {
+            }
+            assertEquals(8080, ConfigFactory.bind(loaded.atPath("app"), Example.class).getPort());
+            assertEquals(generation, loaded.snapshot().getGeneration());
+        }
+        finally {
+            f.delete();
+        }
+
+        ConfigSchema.Builder large = ConfigSchema.builder();
+        Map<String, Object> values = newLinkedHashMap();
+        for (int i = 0; i < 5000; i++) {
+            large.optional("key" + i, Type.LONG);
+            values.put("key" + i, i);
+        }
+        values.put("key4321", "4321L");
+        assertEquals(asList("'key4321' should be LONG but was '4321L'"),
+                large.build().validate(ConfigFactory.toConfigMap(values)));
+    }
+
+    @Test
+    public void testSnapshot() throws Exception {
+        Map<String, Object> o = newLinkedHashMap();
+        o.put("db.host", "localhost");
+        o.put("db.port", "1111");
+        Config c = ConfigFactory.fromMap(o);
+        Config db = c.atPath("db");
+        Property<String> host = db.getString("host");
+        Property<Integer> port = db.getInteger("port");
+
+        ConfigSnapshot s = c.snapshot();
+        long generation = s.getGeneration();
+
+        Map<String, Object> n = newLinkedHashMap();
+        n.put("db.host", "remote");
+        n.put("db.port", "2222");
+        c.replace(ConfigFactory.toConfigMap(n));
+
+        assertEquals("localhost", host.get(s));
+        assertEquals(1111, port.get(s).intValue());
+        assertEquals(1111, port.or(5).get(s).intValue());
+        assertEquals("localhost", host.cache().get(s));
+        assertEquals("remote", host.get());
+        assertEquals("localhost", s.get("db.host"));
+
+        ConfigSnapshot current = db.snapshot();
+        assertTrue(current.getGeneration() > generation);
+        assertEquals("remote", current.get("host"));
+        assertEquals(2222, port.get(current).intValue());
+        assertEquals(asList("host", "port"), Lists.newArrayList(current.getRawKeys()));
+
+        c.reload();
+        assertTrue(c.snapshot().getGeneration() > current.getGeneration());
+
+        try {
+            host.get(ConfigFactory.fromMap(o).snapshot());
+            fail("foreign snapshot");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        Map<String, Object> o = newLinkedHashMap();
+        o.put("zone1.db.host", "localhost");
+        o.put("zone1.db.port", "1111");
+        o.put("zone1.db.auto", "true");
+        o.put("zone1.db.ratio", "NaN%");
+        Config db = ConfigFactory.fromMap(o).atPath("zone1.db");
+
+        Batch batch = Batch.builder()
+                .add("host", Type.STRING)
+                .add("port", Type.INTEGER)
+                .add("auto", Type.BOOLEAN)
+                .add("ratio", Type.DOUBLE)
+                .add("user", Type.STRING)
+                .build();
+        ConfigSnapshot s = db.snapshot();
+        Values v = db.getValues(batch);
+        o.put("zone1.db.host", "changed");
+
+        assertEquals(s.getGeneration(), v.getGeneration());
+        assertEquals("localhost", v.get(0));
+        assertEquals(Integer.valueOf(1111), v.get("port"));
+        assertEquals(Boolean.TRUE, v.get("auto"));
+        assertFalse(v.isPresent(4));
+        assertEquals("admin", v.orValue("user", "admin"));
+        assertEquals(Double.valueOf(1.0), v.orValue("ratio", 1.0));
+        try {
+            v.get("ratio");
+            fail("ratio");
+        } catch (NumberFormatException e) {
+        }
+
+        Values bound = db.getValues(ConfigFactory.batch(Example.class));
+        assertEquals(Integer.valueOf(1111), bound.get("port"));
+        assertEquals(Boolean.TRUE, bound.get("auto"));
+        assertEquals("changed", bound.get("host"));
+        assertFalse(bound.isPresent(bound.getBatch().indexOf("user")));
+    }
+
+    @Test
+    public void testExport() throws Exception {
+        Map<String, Object> o = newLinkedHashMap();
+        for (int i = 0; i < 5000; i++) {
+            o.put("a.key" + i, "value" + i);
+        }
+        o.put("b", 1);
+        Config c = ConfigFactory.fromMap(o);
+        Config a = c.atPath("a");
+
+        Map<String, ? extends Object> m = a.toMap();
+        assertEquals(5000, m.size());
+        assertFalse(m.isEmpty());
+        assertEquals(5000, Iterables.size(m.entrySet()));
+        assertEquals("value7", m.get("key7"));
+
+        Properties props = a.toProperties();
+        assertEquals(5000, props.size());
+        assertEquals("value42", props.get("key42"));
+
+        String expected = ConfigFactory.prettyPrint(a);
+        assertTrue(expected.startsWith("\nkey0=value0\nkey1=value1\n"));
+
+        PrintConfig pc = new PrintConfig();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ConfigFactory.prettyPrint(a, bytes, pc);
+        assertEquals(expected, bytes.toString("UTF-8"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            pc.setExecutor(executor);
+            pc.setChunkSize(100);
+            bytes = new ByteArrayOutputStream();
+            ConfigFactory.prettyPrint(a, Channels.newChannel(bytes), pc);
+            assertEquals(expected, bytes.toString("UTF-8"));
+        } finally {
+            executor.shutdown();
+        }
+
+        // A key in two layers is one entry and a key without a value is none
+        Map<String, Object> top = newLinkedHashMap();
+        top.put("a.key1", "override");
+        top.put("a.unset", null);
+        Map<String, ? extends Object> chained = ConfigFactory.from(
+                ConfigFactory.chain(ConfigFactory.toConfigMap(top), ConfigFactory.toConfigMap(o))).atPath("a").toMap();
+        assertEquals(5000, chained.size());
+        assertEquals(5000, Iterables.size(chained.entrySet()));
+        assertEquals(5000, chained.values().size());
+        assertEquals("override", chained.get("key1"));
+    }
+
+    @Test
+    public void testNamespaced() throws Exception {
+        Map<String, Object> root = newLinkedHashMap();
+        root.put("http.port", "80");
+        root.put("db.ignored", "shadowed");
+        Map<String, Object> db = newLinkedHashMap();
+        db.put("host", "localhost");
+        Map<String, Object> flags = newLinkedHashMap();
+        flags.put("beta", "false");
+
+        Map<String, ConfigMap> shards = newLinkedHashMap();
+        shards.put("db", ConfigFactory.toConfigMap(db));
+        shards.put("feature.flags", ConfigFactory.toConfigMap(flags));
+        NamespacedConfigMap ns = ConfigFactory.namespaced(ConfigFactory.toConfigMap(root), shards);
+        Config c = ConfigFactory.from(ns);
+
+        assertEquals("localhost", c.getString("db.host").get());
+        assertEquals("localhost", c.atPath("db").getString("host").get());
+        assertEquals(false, c.getBoolean("feature.flags.beta").get());
+        assertEquals(80, c.getInteger("http.port").get().intValue());
+        assertFalse(c.hasPath("db.ignored"));
+        assertEquals(asList("http.port", "db.host", "feature.flags.beta"), Lists.newArrayList(c.getPaths()));
+
+        final AtomicInteger dbChanges = new AtomicInteger();
+        final AtomicInteger flagChanges = new AtomicInteger();
+        c.getString("db.host").addListener(counter(dbChanges));
+        c.getBoolean("feature.flags.beta").addListener(counter(flagChanges));
+        dbChanges.set(0);
+        flagChanges.set(0);
+
+        ConfigSnapshot before = c.snapshot();
+        Map<String, Object> newFlags = newLinkedHashMap();
+        newFlags.put("beta", "true");
+        ns.getMounts().get("feature.flags").replace(ConfigFactory.toConfigMap(newFlags));
+
+        assertEquals(1, flagChanges.get());
+        assertEquals(0, dbChanges.get());
+        assertEquals(true, c.getBoolean("feature.flags.beta").get());
+        assertEquals(false, c.getBoolean("feature.flags.beta").get(before));
+        assertTrue(c.snapshot().getGeneration() > before.getGeneration());
+        assertEquals(ns.snapshot().getGeneration(), ConfigFactory.generationOf(ns));
+
+        // Weak listeners hear about the whole map too, for as long as they are reachable
+        final List<ConfigMap> notified = Lists.newArrayList();
+        FutureCallback<ConfigMap> weak = new FutureCallback<ConfigMap>() {
+            @Override
+            public void onSuccess(ConfigMap result) {
+                notified.add(result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+            }
+        };
+        ns.addWeakListener(weak);
+        System.gc();
+        ns.getMounts().get("db").replace(ConfigFactory.toConfigMap(db));
+        assertEquals(1, notified.size());
+        assertTrue(notified.get(0) == ns);
+        assertNotNull(weak);
+    }
+
+    @Test
+    public void testInterpolating() throws Exception {
+        Map<String, Object> defaults = newLinkedHashMap();
+        defaults.put("db.host", "localhost");
+        defaults.put("db.port", 1111);
+        defaults.put("db.url", "jdbc://${db.host}:${db.port}/${db.name}");
+        Map<String, Object> overrides = newLinkedHashMap();
+        overrides.put("db.name", "app");
+        overrides.put("db.backup.port", "${db.port}");
+
+        ReplaceableConfigMap m = ConfigFactory.interpolating(
+                ConfigFactory.chain(ConfigFactory.toConfigMap(overrides), ConfigFactory.toConfigMap(defaults)));
+        Config c = ConfigFactory.from(m);
+        assertEquals("jdbc://localhost:1111/app", c.getString("db.url").get());
+        assertEquals(1111, c.getInteger("db.backup.port").get().intValue());
+        assertEquals(1111, c.get("db.backup.port"));
+
+        overrides.put("db.host", "remote");
+        overrides.put("db.missing", "${nope}");
+        c.reload();
+        assertEquals("jdbc://remote:1111/app", c.getString("db.url").get());
+        assertFalse(c.getString("db.missing").isPresent());
+
+        Map<String, Object> cyclic = newLinkedHashMap();
+        cyclic.put("a", "${b}");
+        cyclic.put("b", "x${a}");
+        ConfigSnapshot before = c.snapshot();
+        try {
+            c.replace(ConfigFactory.toConfigMap(cyclic));
+            fail("cycle");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("Cyclic"));
+        }
+        assertEquals(before.getGeneration(), c.snapshot().getGeneration());
+        assertEquals("jdbc://remote:1111/app", c.getString("db.url").get());
+    }
+
+    @Test
+    public void testCachePolicy() throws Exception {
+        Map<String, Object> o = newLinkedHashMap();
+        o.put("port", "1");
+        Config c = ConfigFactory.fromMap(o);
+        final AtomicLong time = new AtomicLong();
+        Ticker ticker = new Ticker() {
+            @Override
+            public long read() {
+                return time.get();
+            }
+        };
+
+        Property<Integer> ttl = c.getInteger("port")
+                .cache(CachePolicy.expireAfter(10, TimeUnit.SECONDS).withStaleOnError().withTicker(ticker));
+        assertEquals(1, ttl.get().intValue());
+        o.put("port", "2");
+        time.addAndGet(TimeUnit.SECONDS.toNanos(9));
+        assertEquals(1, ttl.get().intValue());
+        time.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertEquals(2, ttl.get().intValue());
+
+        o.put("port", "broken");
+        time.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertEquals(2, ttl.get().intValue());
+
+        o.put("port", "3");
+        Property<Integer> refreshed = c.getInteger("port")
+                .cache(CachePolicy.refreshAfter(20, TimeUnit.MILLISECONDS));
+        assertEquals(3, refreshed.get().intValue());
+        o.put("port", "4");
+        for (int i = 0; i < 200 && refreshed.get().intValue() != 4; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(4, refreshed.get().intValue());
+    }
+
+    @Test
+    public void testCached() throws Exception {
+        final AtomicInteger reads = new AtomicInteger();
+        final Map<String, Object> o = newLinkedHashMap();
+        o.put("a", "1");
+        o.put("b", "2");
+        o.put("c", "3");
+        ConfigMap slow = new ConfigMap() {
+            @Override
+            public Object get(String key) {
+                reads.incrementAndGet();
+                return o.get(key);
+            }
+
+            @Override
+            public boolean containsKey(String key) {
+                return get(key) != null;
+            }
+
+            @Override
+            public Iterable<String> getRawKeys() {
+                return o.keySet();
+            }
+        };
+        CachingConfigMap m = ConfigFactory.cached(slow, "maximumSize=2");
+        Config c = ConfigFactory.from(m);
+
+        assertEquals("1", c.getString("a").get());
+        assertEquals("1", c.getString("a").get());
+        assertFalse(c.getString("missing").isPresent());
+        assertFalse(c.getString("missing").isPresent());
+        assertEquals(2, reads.get());
+        assertEquals(2, m.getStats().hitCount());
+
+        c.getString("b").get();
+        c.getString("c").get();
+        assertTrue(m.getStats().evictionCount() > 0);
+
+        Map<String, Object> replaced = newLinkedHashMap();
+        replaced.put("a", "one");
+        m.replace(ConfigFactory.toConfigMap(replaced));
+        assertEquals("one", c.getString("a").get());
+        assertFalse(c.getString("b").isPresent());
+        assertEquals(m.snapshot().getGeneration(), ConfigFactory.generationOf(m));
+    }
+
+    private static <T> FutureCallback<T> counter(final AtomicInteger count) {
+        return new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                count.incrementAndGet();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                count.incrementAndGet();
+            }
+        };
+    }
+
+    @Test
+    public void testHotKeys() throws Exception {
+        Map<String, Object> o = newLinkedHashMap();
+        o.put("app.host", "localhost");
+        o.put("app.port", "8080");
+        o.put("app.user", "admin");
+        o.put("app.auto", "true");
+        o.put("timeout", "nope");
+        Config c = ConfigFactory.fromMap(o);
+
+        HotKeys recorded = HotKeys.record();
+        ConfigFactory.bind(c.atPath("app"), Example.class).getPort();
+        c.getInteger("timeout");
+        recorded.stop();
+        c.getString("ignored");
+
+        assertEquals(Type.INTEGER, recorded.getProperties().get("app.port"));
+        assertEquals(Type.INTEGER, recorded.getProperties().get("timeout"));
+        assertFalse(recorded.getProperties().containsKey("ignored"));
+        assertEquals(Sets.newHashSet(Example.class.getName()), recorded.getBound());
+
+        File f = File.createTempFile("hotkeys", ".txt");
+        try {
+            recorded.write(f);
+            Files.append("NOT_A_TYPE\tapp.hosts\n", f, Charsets.UTF_8);
+            HotKeys read = HotKeys.read(f);
+            assertEquals(recorded.getProperties(), read.getProperties());
+            assertEquals(recorded.getBound(), read.getBound());
+            // The invalid timeout is skipped
+            assertEquals(Integer.valueOf(1), read.prewarm(c).get());
+        }
+        finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void testStructuredTypes() {
+        Map<String, Object> o = newLinkedHashMap();
+        o.put("timeout", "30s");
+        o.put("poll", "250");
+        o.put("buffer", "64 KiB");
+        o.put("hosts", "a, b,,c, a");
+        o.put("headers", "x=1, y = 2");
+        o.put("bad", "x=1,x=2");
+        Config c = ConfigFactory.fromMap(o);
+
+        assertEquals(Duration.of(30, TimeUnit.SECONDS), c.getDuration("timeout").get());
+        assertEquals(250L, c.getDuration("poll").get().toMillis());
+        assertEquals("30s", c.getDuration("timeout").get().toString());
+        assertNull(Duration.tryParse("30 parsecs"));
+        assertNull(Duration.tryParse("9999999999999d"));
+        assertEquals(Long.MAX_VALUE, Duration.parse(Long.MAX_VALUE + "ns").toNanos());
+        assertNull(DataSize.tryParse("9999999999999t"));
+        assertEquals(64 * 1024L, c.getDataSize("buffer").get().toBytes());
+        assertEquals("64k", c.getDataSize("buffer").get().toString());
+        assertEquals(DataSize.ofBytes(3L << 30), DataSize.parse("3g"));
+        assertNull(DataSize.tryParse("9999999999999t"));
+        assertEquals(asList("a", "b", "c", "a"), c.getList("hosts").get());
+        assertEquals(asList("a", "b", "c"), Lists.newArrayList(c.getSet("hosts").get()));
+        assertEquals(ImmutableMap.of("x", "1", "y", "2"), c.getMap("headers").get());
+        assertNull(c.getMap("bad").orValue(null));
+        try {
+            c.getMap("bad").get();
+            fail();
+        }
+        catch (IllegalArgumentException e) {
+        }
+
+        // Parsed once until the value changes
+        Property<List<String>> hosts = c.getList("hosts");
+        assertTrue(hosts.get() == hosts.get());
+        List<String> before = hosts.get();
+        o.put("hosts", "d");
+        c.replace(ConfigFactory.toConfigMap(o));
+        assertEquals(asList("d"), hosts.get());
+        assertFalse(before == hosts.get());
+
+        Limits l = ConfigFactory.bind(c, Limits.class);
+        assertEquals(30L, l.getTimeout().to(TimeUnit.SECONDS));
+        assertEquals(asList("d"), l.getHosts());
+        assertFalse(l.tags().isPresent());
+        assertEquals("2", l.getHeaders().get("y"));
+        assertTrue(ConfigFactory.schema(Limits.class).validate(c).isEmpty());
+    }
+
+    public interface Limits {
+
+        public Duration getTimeout();
+
+        public List<String> getHosts();
+
+        public Optional<Set<String>> tags();
+
+        public Map<String, String> getHeaders();
+    }
+
+    @Test
+    public void testConverters() {
+        Converters.register(Version.class, new Function<String, Version>() {
+            @Override
+            public Version apply(String input) {
+                return new Version(Integer.parseInt(input.trim().substring(1)));
+            }
+        });
+        Map<String, Object> o = newLinkedHashMap();
+        o.put("unit", "SECONDS");
+        o.put("endpoint", "http://localhost/api");
+        o.put("address", "localhost:8080");
+        o.put("version", "v3");
+        o.put("bad", "v");
+        Config c = ConfigFactory.fromMap(o);
+
+        assertEquals(TimeUnit.SECONDS, c.getProperty("unit", TimeUnit.class).get());
+        assertEquals(URI.create("http://localhost/api"), c.getProperty("endpoint", URI.class).get());
+        assertEquals(8080, c.getProperty("address", InetSocketAddress.class).get().getPort());
+        assertEquals(Integer.valueOf(8080), c.getProperty("address", Integer.class).or(8080).get());
+        assertNull(c.getProperty("bad", Version.class).orValue(null));
+        try {
+            c.getProperty("bad", Version.class).get();
+            fail();
+        }
+        catch (IllegalArgumentException e) {
+        }
+        try {
+            c.getProperty("unit", Thread.class);
+            fail();
+        }
+        catch (IllegalArgumentException e) {
+        }
+
+        // Converted once and shared until the value changes
+        Property<Version> v = c.getProperty("version", Version.class);
+        assertEquals(3, v.get().number);
+        assertTrue(v.get() == v.get());
+
+        Endpoint e = ConfigFactory.bind(c, Endpoint.class);
+        assertEquals(TimeUnit.SECONDS, e.getUnit());
+        assertEquals(3, e.getVersion().number);
+        assertTrue(e.getVersion() == e.getVersion());
+        assertEquals("localhost", e.address().get().getHostString());
+
+        // Bound interfaces cached the lookup
+        try {
+            Converters.register(Version.class, new Function<String, Version>() {
+                @Override
+                public Version apply(String input) {
+                    return new Version(0);
+                }
+            });
+            fail();
+        }
+        catch (IllegalStateException ex) {
+        }
+    }
+
+    public static final class Version {
+        final int number;
+
+        Version(int number) {
+            this.number = number;
+        }
+    }
+
+    public interface Endpoint {
+
+        public TimeUnit getUnit();
+
+        public Version getVersion();
+
+        public Optional<InetSocketAddress> address();
+    }
+
+    @Test
+    public void testLastKnownGood() throws Exception {
+        File f = File.createTempFile("lkg", ".bin");
+        try {
+            Map<String, Object> o = newLinkedHashMap();
+            o.put("host", "localhost");
+            o.put("port", 8080);
+            ReplaceableConfigMap m = new PersistentConfigMap(ConfigFactory.replaceable(ConfigFactory.toConfigMap(o)),
+                    f, null, MoreExecutors.sameThreadExecutor());
+            m.reload();
+            assertEquals(ImmutableMap.of("host", "localhost", "port", "8080"), PersistentConfigMap.read(f));
+
+            // Serves the file while the source is still loading
+            final CountDownLatch loading = new CountDownLatch(1);
+            final Map<String, Object> loaded = newLinkedHashMap();
+            loaded.put("host", "example.com");
+            ConfigMap.LastKnownGoodConfigMap lkg = ConfigFactory.lastKnownGood(f, new Callable<ConfigMap>() {
+                @Override
+                public ConfigMap call() throws Exception {
+                    loading.await();
+                    return ConfigFactory.toConfigMap(loaded);
+                }
+            });
+            Config c = ConfigFactory.from(lkg);
+            assertEquals(Integer.valueOf(8080), c.getInteger("port").get());
+            loading.countDown();
+            lkg.getInitialLoad().get();
+            assertEquals("example.com", c.getString("host").get());
+            assertFalse(c.getInteger("port").isPresent());
+            for (int i = 0; i < 100 && ! "example.com".equals(PersistentConfigMap.read(f).get("host")); i++) {
+                Thread.sleep(10);
+            }
+
+            // The source is down on the next start
+            lkg = ConfigFactory.lastKnownGood(f, new Callable<ConfigMap>() {
+                @Override
+                public ConfigMap call() throws Exception {
+                    throw new IOException("down");
+                }
+            });
+            assertEquals("example.com", lkg.get("host"));
+            try {
+                lkg.getInitialLoad().get();
+                fail();
+            }
+            catch (ExecutionException e) {
+                assertEquals("down", e.getCause().getCause().getMessage());
+            }
+            assertEquals("example.com", lkg.get("host"));
+
+            Files.write(new byte[] {1, 2, 3}, f);
+            assertTrue(PersistentConfigMap.read(f).isEmpty());
+        }
+        finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void testPersistentStructuredValues() throws Exception {
+        File dir = Files.createTempDir();
+        File f = new File(dir, "config.bin");
+        final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+        final List<String> skipped = new CopyOnWriteArrayList<String>();
+        ConfigTracer tracer = new ConfigTracer() {
+            @Override
+            public void snapshotWriteFailed(File file, Throwable failure) {
+                failures.add(failure);
+            }
+
+            @Override
+            public void valueNotPersisted(File file, String key, Throwable failure) {
+                skipped.add(key);
+            }
+        };
+        ConfigTracer.install(tracer);
+        try {
+            Map<String, Object> o = newLinkedHashMap();
+            o.put("hosts", ImmutableList.of("a", "b"));
+            o.put("limits", ImmutableMap.of("read", 1, "write", 2));
+            ReplaceableConfigMap m = new PersistentConfigMap(ConfigFactory.replaceable(ConfigFactory.toConfigMap(o)),
+                    f, null, MoreExecutors.sameThreadExecutor());
+            m.reload();
+            Config c = ConfigFactory.from(ConfigFactory.toConfigMap(PersistentConfigMap.read(f)));
+            assertEquals(ImmutableList.of("a", "b"), c.getProperty("hosts", Type.LIST).get());
+            assertEquals(ImmutableMap.of("read", "1", "write", "2"), c.getProperty("limits", Type.MAP).get());
+            assertTrue(failures.isEmpty());
+            assertTrue(skipped.isEmpty());
+
+            // An element that would split apart is left out, the rest is still written
+            o.put("hosts", ImmutableList.of("a,b"));
+            o.put("limits", ImmutableMap.of("read", 3));
+            m.replace(ConfigFactory.toConfigMap(o));
+            assertTrue(failures.isEmpty());
+            assertEquals(ImmutableList.of("hosts"), skipped);
+            Map<String, String> written = PersistentConfigMap.read(f);
+            assertFalse(written.containsKey("hosts"));
+            assertEquals("read=3", written.get("limits"));
+
+            // And is written again once it can be
+            o.put("hosts", ImmutableList.of("a", "c"));
+            m.replace(ConfigFactory.toConfigMap(o));
+            assertEquals(1, skipped.size());
+            assertEquals("a,c", PersistentConfigMap.read(f).get("hosts"));
+
+            try {
+                ConfigFactory.persistent(m, new File(new File(dir, "missing"), "config.bin"));
+                fail();
+            }
+            catch (IllegalArgumentException e) {
+            }
+        }
+        finally {
+            ConfigTracer.uninstall(tracer);
+            f.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testChangeChannel() throws Exception {
+        File dir = Files.createTempDir();
+        File f = new File(dir, "config.channel");
+        ChangeChannel writer = ChangeChannel.open(f);
+        // A second mapping of the file stands in for another process
+        ChangeChannel reader = ChangeChannel.open(f);
+        try {
+            Config c = ConfigFactory.from(reader.subscribe());
+            Property<String> host = c.getString("host").cache();
+            AtomicInteger changes = new AtomicInteger();
+            host.addListener(counter(changes));
+            assertFalse(host.isPresent());
+
+            Map<String, Object> o = newLinkedHashMap();
+            o.put("host", "localhost");
+            assertEquals(1L, writer.publish(ConfigFactory.toConfigMap(o)));
+            assertEquals(1L, reader.getGeneration());
+            assertEquals("localhost", host.get());
+            // Once when added and once for the change
+            assertEquals(2, changes.get());
+
+            o.put("host", "example.com");
+            writer.publish(ConfigFactory.toConfigMap(o));
+            writer.publish(ConfigFactory.toConfigMap(o));
+            assertEquals("example.com", host.get());
+            assertEquals(3, changes.get());
+            // Only the current and the previous snapshot are kept
+            assertFalse(new File(dir, "config.channel.1").exists());
+            assertTrue(new File(dir, "config.channel.3").exists());
+
+            // A subscription started later starts at the current snapshot
+            assertEquals("example.com", reader.subscribe().get("host"));
+
+            // The writer died after writing the snapshot of generation 4 but before publishing it
+            Map<String, Object> unpublished = newLinkedHashMap();
+            unpublished.put("host", "unpublished");
+            PersistentConfigMap.write(ConfigFactory.toConfigMap(unpublished), new File(dir, "config.channel.4"));
+            ReplaceableConfigMap late = reader.subscribe();
+            assertEquals("example.com", late.get("host"));
+            assertEquals("example.com", host.get());
+            o.put("host", "example.org");
+            assertEquals(4L, writer.publish(ConfigFactory.toConfigMap(o)));
+            assertEquals("example.org", late.get("host"));
+        }
+        finally {
+            writer.close();
+            reader.close();
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testPatchable() {
+        Map<String, Object> o = newLinkedHashMap();
+        o.put("host", "localhost");
+        o.put("port", "8080");
+        PatchableConfigMap m = ConfigFactory.patchable(ConfigFactory.toConfigMap(o));
+        Config c = ConfigFactory.from(m);
+        AtomicInteger changes = new AtomicInteger();
+        c.getString("host").addListener(counter(changes));
+        ConfigSnapshot before = m.snapshot();
+
+        Map<String, Object> patch = newLinkedHashMap();
+        patch.put("host", "example.com");
+        patch.put("port", null);
+        patch.put("user", "admin");
+        ConfigSnapshot after = m.apply(patch);
+        assertEquals(before.getGeneration() + 1, after.getGeneration());
+        assertEquals("example.com", c.getString("host").get());
+        assertFalse(c.getInteger("port").isPresent());
+        assertEquals("admin", c.getString("user").get());
+        // The snapshot held before the patch is unchanged
+        assertEquals("localhost", before.get("host"));
+        assertEquals("8080", before.get("port"));
+        assertNull(before.get("user"));
+        // Once when added and once for the patch
+        assertEquals(2, changes.get());
+
+        // A patch that changes nothing does not commit
+        assertEquals(after.getGeneration(), m.apply(ImmutableMap.of("host", "example.com")).getGeneration());
+        assertEquals(2, changes.get());
+
+        // Random patches agree with a plain map, "Aa" and "BB" have the same hash
+        Random random = new Random(42);
+        Map<String, Object> expected = newLinkedHashMap();
+        HashTrieConfigMap trie = HashTrieConfigMap.empty();
+        for (int i = 0; i < 200; i++) {
+            patch = newLinkedHashMap();
+            for (int j = 0; j < 50; j++) {
+                int n = random.nextInt(2000);
+                String k = (random.nextBoolean() ? "Aa" : "BB") + n;
+                patch.put(k, random.nextInt(4) == 0 ? null : String.valueOf(i));
+            }
+            trie = trie.with(patch);
+            for (Map.Entry<String, Object> e : patch.entrySet()) {
+                if (e.getValue() == null) expected.remove(e.getKey());
+                else expected.put(e.getKey(), e.getValue());
+            }
+            assertEquals(expected.size(), trie.size());
+        }
+        for (Map.Entry<String, Object> e : expected.entrySet()) {
+            assertEquals(e.getValue(), trie.get(e.getKey()));
+        }
+        assertEquals(expected.keySet(), Sets.newHashSet(trie.getRawKeys()));
+        assertEquals(expected.size(), Iterables.size(trie.getRawKeys()));
+        assertNull(trie.get("Aa2000"));
+    }
+
+    @Test
+    public void testHistory() {
+        VersionedConfigMap m = ConfigFactory.versioned(ConfigFactory.toConfigMap(ImmutableMap.of("port", "1")), 3);
+        Config c = ConfigFactory.from(m);
+        AtomicInteger changes = new AtomicInteger();
+        Property<Integer> port = c.getInteger("port").cache();
+        port.addListener(counter(changes));
+        for (int i = 2; i <= 4; i++) {
+            m.replace(ConfigFactory.toConfigMap(ImmutableMap.of("port", String.valueOf(i), "host", "localhost")));
+        }
+        List<ConfigRevision> history = m.getHistory();
+        assertEquals(3, history.size());
+        assertEquals(1L, history.get(0).getGeneration());
+        assertEquals(3L, history.get(2).getGeneration());
+        // The host was added along with the first change of the port
+        assertEquals(2, history.get(0).getChangedKeys());
+        assertEquals(1, history.get(2).getChangedKeys());
+
+        ConfigSnapshot s = m.rollback(1L);
+        assertEquals(4L, s.getGeneration());
+        assertEquals(Integer.valueOf(2), port.get());
+        assertEquals(5, changes.get());
+        assertEquals(4L, Iterables.getLast(m.getHistory()).getGeneration());
+        try {
+            m.rollback(0L);
+            fail();
+        }
+        catch (IllegalArgumentException e) {
+        }
+
+        // Patched maps roll back to the shared trie of the earlier generation
+        PatchableConfigMap p = ConfigFactory.patchable(ConfigFactory.toConfigMap(ImmutableMap.of("port", "1")));
+        p.apply(ImmutableMap.of("port", "2", "host", "localhost"));
+        p.apply(ImmutableMap.of("port", "3"));
+        assertEquals(2, p.getHistory().get(1).getChangedKeys());
+        p.rollback(1L);
+        assertEquals("2", p.get("port"));
+        p.apply(ImmutableMap.of("user", "admin"));
+        assertEquals("2", p.get("port"));
+        assertEquals("admin", p.get("user"));
+        assertEquals(1, Iterables.getLast(p.getHistory()).getChangedKeys());
+
+        // Views of mutable maps may change after the commit, so their changes are not counted
+        Map<String, Object> mutable = newLinkedHashMap();
+        mutable.put("port", "1");
+        VersionedConfigMap v = ConfigFactory.versioned(ConfigFactory.toConfigMap(mutable), 2);
+        Map<String, Object> next = newLinkedHashMap(mutable);
+        next.put("port", "2");
+        v.replace(ConfigFactory.toConfigMap(next));
+        mutable.put("port", "2");
+        assertEquals(-1, Iterables.getLast(v.getHistory()).getChangedKeys());
+
+        // Only maps asked for a history keep one
+        assertFalse(ConfigFactory.replaceable(ConfigFactory.toConfigMap(mutable)) instanceof VersionedConfigMap);
+    }
+
+    @Test
+    public void testEnvironment() {
+        Map<String, String> env = newLinkedHashMap();
+        env.put("DB_HOST", "db.example.com");
+        env.put("MY_APP_DB_PORT", "5432");
+        env.put("_JAVA_OPTIONS", "-Xmx1g");
+        env.put("LOG_LEVEL", "warn");
+        env.put("log.level", "debug");
+        ConfigMap m = ConfigFactory.environment(env);
+        assertEquals("db.example.com", m.get("db.host"));
+        assertEquals("db.example.com", m.get("db-host"));
+        assertEquals("db.example.com", m.get("db_host"));
+        assertEquals("db.example.com", m.get("DB_HOST"));
+        assertEquals("5432", m.get("my-app.db-port"));
+        assertEquals("-Xmx1g", m.get("java.options"));
+        // A variable already spelled the dotted way wins
+        assertEquals("debug", m.get("log.level"));
+        assertEquals("warn", m.get("LOG_LEVEL"));
+        assertNull(m.get("db"));
+        assertFalse(m.containsKey("db.port"));
+        assertEquals(Sets.newHashSet("db.host", "my.app.db.port", "java.options", "log.level"),
+                Sets.newHashSet(m.getRawKeys()));
+
+        Config c = ConfigFactory.from(ConfigFactory.chain(ConfigFactory.toConfigMap(ImmutableMap.of("db.port", "1")), m));
+        assertEquals(Integer.valueOf(5432), c.getInteger("my.app.db.port").get());
+        assertEquals("db.example.com", c.getString("db.host").get());
+        assertEquals(Integer.valueOf(1), c.getInteger("db.port").get());
+    }
+
     public interface Example {
 
         public Supplier<String> getHost();
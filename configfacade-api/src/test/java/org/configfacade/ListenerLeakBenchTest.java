@@ -0,0 +1,56 @@
+package org.configfacade;
+
+import static com.google.common.collect.Maps.newLinkedHashMap;
+import static java.lang.System.out;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Long running, excluded from the default build. Run with
+ * <code>mvn test -Dtest=ListenerLeakBenchTest</code>.
+ */
+public class ListenerLeakBenchTest {
+
+    @Test
+    public void testSteadyMemoryAndReplaceLatency() throws Exception {
+        Map<String, Object> o = newLinkedHashMap();
+        o.put("host", "localhost");
+        Config c = ConfigFactory.fromMap(o);
+
+        final int rounds = 20;
+        final int perRound = 200000;
+        long firstReplace = 0;
+        long firstHeap = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (int i = 0; i < perRound; i++) {
+                c.getString("host").cache().get();
+            }
+            long heap = usedHeapAfterGc();
+            long start = System.nanoTime();
+            c.reload();
+            long replace = System.nanoTime() - start;
+            out.println("round " + r + ": properties=" + (long) (r + 1) * perRound
+                    + " heap=" + heap / 1024 + "k replace=" + replace / 1000 + "us");
+            if (r == 1) {
+                firstReplace = replace;
+                firstHeap = heap;
+            }
+            if (r > 1) {
+                assertTrue("heap grew: " + heap, heap < firstHeap + 16 * 1024 * 1024);
+                assertTrue("replace slowed down: " + replace, replace < Math.max(firstReplace * 10, 5000000));
+            }
+        }
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,21 @@
+package org.configfacade.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.configfacade.Bind")
+@Label("Config Bind")
+@Category("Configfacade")
+@Description("A method of a bound interface was resolved")
+@StackTrace(false)
+class BindEvent extends jdk.jfr.Event {
+
+	@Label("Interface")
+	Class<?> bound;
+
+	@Label("Path")
+	String path;
+}
@@ -0,0 +1,149 @@
+package org.configfacade.jfr;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+import org.configfacade.ConfigMap;
+import org.configfacade.ConfigMap.ReplaceableConfigMap;
+import org.configfacade.ConfigTracer;
+
+/**
+ * Emits Flight Recorder events for reloads, listener dispatch, slow reads and bind resolution.
+ * <p>
+ * After {@link #register()} the tracer is only installed while a recording is running, so
+ * configfacade pays nothing for tracing otherwise. Each event can still be switched off in the
+ * recording settings under the <code>org.configfacade</code> names. Events span the work they
+ * measure, so the standard <code>threshold</code> setting applies to each of them; slow reads
+ * default to a threshold of 1 ms.
+ */
+public final class JfrConfigTracer extends ConfigTracer {
+
+	private static final JfrConfigTracer INSTANCE = new JfrConfigTracer();
+	private static final AtomicBoolean registered = new AtomicBoolean();
+
+	private JfrConfigTracer() {
+		super();
+	}
+
+	/**
+	 * Installs the tracer whenever a recording starts and uninstalls it once none is running.
+	 * Does nothing if Flight Recorder is not available. Calling it again has no effect.
+	 */
+	public static void register() {
+		if (! FlightRecorder.isAvailable() || ! registered.compareAndSet(false, true)) return;
+		FlightRecorder.addListener(new FlightRecorderListener() {
+			@Override
+			public void recordingStateChanged(Recording recording) {
+				update();
+			}
+		});
+		update();
+	}
+
+	private static void update() {
+		if (isRecording()) {
+			ConfigTracer.install(INSTANCE);
+		}
+		else {
+			ConfigTracer.uninstall(INSTANCE);
+		}
+	}
+
+	private static boolean isRecording() {
+		if (! FlightRecorder.isInitialized()) return false;
+		for (Recording r : FlightRecorder.getFlightRecorder().getRecordings()) {
+			if (r.getState() == RecordingState.RUNNING) return true;
+		}
+		return false;
+	}
+
+	@Override
+	public Object reloadStarted(ReplaceableConfigMap map) {
+		ReloadEvent e = new ReloadEvent();
+		if (! e.isEnabled()) return null;
+		e.begin();
+		return e;
+	}
+
+	@Override
+	public void reloadCommitted(Object context, ReplaceableConfigMap map, long generation, int keys, int changedKeys) {
+		if (context == null) return;
+		ReloadEvent e = (ReloadEvent) context;
+		e.end();
+		if (! e.shouldCommit()) return;
+		e.map = map.toString();
+		e.generation = generation;
+		e.keys = keys;
+		e.changedKeys = changedKeys;
+		e.commit();
+	}
+
+	@Override
+	public Object listenerStarted(Object listener) {
+		ListenerEvent e = new ListenerEvent();
+		if (! e.isEnabled()) return null;
+		e.begin();
+		return e;
+	}
+
+	@Override
+	public void listenerDispatched(Object context, Object listener, long nanos, Throwable failure) {
+		if (context == null) return;
+		ListenerEvent e = (ListenerEvent) context;
+		e.end();
+		if (! e.shouldCommit()) return;
+		e.listener = listener.getClass();
+		e.failure = failure == null ? null : failure.toString();
+		e.commit();
+	}
+
+	/*
+	 * Every read is offered to the event, whose threshold setting decides what is slow.
+	 */
+	@Override
+	public long getSlowGetThresholdNanos() {
+		return 0;
+	}
+
+	@Override
+	public Object getStarted(ConfigMap map, String key) {
+		SlowGetEvent e = new SlowGetEvent();
+		if (! e.isEnabled()) return null;
+		e.begin();
+		return e;
+	}
+
+	@Override
+	public void slowGet(Object context, ConfigMap map, String key, long nanos) {
+		if (context == null) return;
+		SlowGetEvent e = (SlowGetEvent) context;
+		e.end();
+		if (! e.shouldCommit()) return;
+		e.map = map.toString();
+		e.key = key;
+		e.commit();
+	}
+
+	@Override
+	public Object bindStarted(Class<?> bound) {
+		BindEvent e = new BindEvent();
+		if (! e.isEnabled()) return null;
+		e.begin();
+		return e;
+	}
+
+	@Override
+	public void bindResolved(Object context, Class<?> bound, String basePath, String property, long nanos) {
+		if (context == null) return;
+		BindEvent e = (BindEvent) context;
+		e.end();
+		if (! e.shouldCommit()) return;
+		e.bound = bound;
+		e.path = basePath + property;
+		e.commit();
+	}
+}
@@ -0,0 +1,21 @@
+package org.configfacade.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.configfacade.ListenerDispatch")
+@Label("Config Listener Dispatch")
+@Category("Configfacade")
+@Description("A change listener was notified")
+@StackTrace(false)
+class ListenerEvent extends jdk.jfr.Event {
+
+	@Label("Listener")
+	Class<?> listener;
+
+	@Label("Failure")
+	String failure;
+}
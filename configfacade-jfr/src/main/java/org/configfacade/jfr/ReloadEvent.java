@@ -0,0 +1,28 @@
+package org.configfacade.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.configfacade.Reload")
+@Label("Config Reload")
+@Category("Configfacade")
+@Description("A map was replaced or reloaded")
+@StackTrace(false)
+class ReloadEvent extends jdk.jfr.Event {
+
+	@Label("Map")
+	String map;
+
+	@Label("Generation")
+	long generation;
+
+	@Label("Keys")
+	int keys;
+
+	@Label("Changed Keys")
+	@Description("Added, removed or changed keys or -1 if the map was reloaded in place")
+	int changedKeys;
+}
@@ -0,0 +1,21 @@
+package org.configfacade.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+@Name("org.configfacade.SlowGet")
+@Label("Slow Config Read")
+@Category("Configfacade")
+@Description("A backend map took longer than the threshold to read a key")
+@Threshold("1 ms")
+class SlowGetEvent extends jdk.jfr.Event {
+
+	@Label("Map")
+	String map;
+
+	@Label("Key")
+	String key;
+}
@@ -0,0 +1,104 @@
+package org.configfacade.jfr;
+
+import static com.google.common.collect.Maps.newLinkedHashMap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.configfacade.Config;
+import org.configfacade.ConfigFactory;
+import org.configfacade.ConfigMap;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+public class JfrConfigTracerTest {
+
+    @Test
+    public void testEvents() throws Exception {
+        Map<String, Object> o = newLinkedHashMap();
+        o.put("host", "localhost");
+        ConfigMap slow = new ConfigMap() {
+            @Override
+            public Object get(String key) {
+                Uninterruptibles.sleepUninterruptibly(2, TimeUnit.MILLISECONDS);
+                return null;
+            }
+
+            @Override
+            public boolean containsKey(String key) {
+                return false;
+            }
+
+            @Override
+            public Iterable<String> getRawKeys() {
+                return Sets.newHashSet();
+            }
+        };
+        Config c = ConfigFactory.from(ConfigFactory.chain(slow, ConfigFactory.toConfigMap(o)));
+
+        Path file = Files.createTempFile("configfacade", ".jfr");
+        try (Recording r = new Recording()) {
+            r.enable("org.configfacade.Reload");
+            r.enable("org.configfacade.ListenerDispatch");
+            r.enable("org.configfacade.SlowGet");
+            r.enable("org.configfacade.Bind");
+            r.start();
+            JfrConfigTracer.register();
+
+            c.getString("host").addListener(new FutureCallback<String>() {
+                @Override
+                public void onSuccess(String result) {
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                }
+            });
+            Map<String, Object> n = newLinkedHashMap();
+            n.put("host", "example.com");
+            c.replace(ConfigFactory.toConfigMap(n));
+            assertEquals("example.com", ConfigFactory.bind(c, Example.class).getHost());
+
+            r.stop();
+            r.dump(file);
+        }
+
+        Set<String> names = Sets.newHashSet();
+        for (RecordedEvent e : RecordingFile.readAllEvents(file)) {
+            names.add(e.getEventType().getName());
+            if (e.getEventType().getName().equals("org.configfacade.Reload")) {
+                assertEquals(1, e.getInt("keys"));
+                assertEquals(1, e.getInt("changedKeys"));
+            }
+            if (e.getEventType().getName().equals("org.configfacade.SlowGet")) {
+                // The event spans the read, so its duration is what was slow
+                assertTrue(e.getDuration().toNanos() >= TimeUnit.MILLISECONDS.toNanos(2));
+                assertTrue(e.getString("map").startsWith("org.configfacade.jfr.JfrConfigTracerTest"));
+            }
+            if (e.getEventType().getName().equals("org.configfacade.Bind")) {
+                assertEquals("host", e.getString("path"));
+            }
+        }
+        Files.delete(file);
+        assertTrue(names.toString(), names.containsAll(Sets.newHashSet("org.configfacade.Reload",
+                "org.configfacade.ListenerDispatch", "org.configfacade.SlowGet", "org.configfacade.Bind")));
+    }
+
+    public interface Example {
+
+        public String getHost();
+    }
+
+}